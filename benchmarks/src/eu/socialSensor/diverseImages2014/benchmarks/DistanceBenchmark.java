@@ -0,0 +1,33 @@
+package eu.socialSensor.diverseImages2014.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import eu.socialSensor.diverseImages2014.utils.Distances;
+
+/**
+ * Benchmarks Distances.computeDistance between the first two images of the synthetic location for each
+ * vector distance function.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DistanceBenchmark {
+
+	@Param({ "euclidean", "cosine", "innerp" })
+	public String dfunc;
+
+	@Benchmark
+	public double computeDistance(SyntheticCollectionState state) throws Exception {
+		return Distances.computeDistance(state.vecs[0], state.vecs[1], dfunc);
+	}
+}
@@ -0,0 +1,43 @@
+package eu.socialSensor.diverseImages2014.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.socialSensor.diverseImages2014.utils.Normalizations;
+
+/**
+ * Benchmarks Normalizations.normalize on the vector of the first image of the synthetic location. The
+ * normalizations work in place, so the vector is copied into a scratch array before each call; the copy is
+ * part of the measured time.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NormalizationBenchmark {
+
+	@Param({ "l2", "l1" })
+	public String norm;
+
+	private double[] scratch;
+
+	@Setup
+	public void setUp(SyntheticCollectionState state) {
+		scratch = new double[state.vecs[0].length];
+	}
+
+	@Benchmark
+	public double[] normalize(SyntheticCollectionState state) throws Exception {
+		System.arraycopy(state.vecs[0], 0, scratch, 0, scratch.length);
+		return Normalizations.normalize(scratch, norm);
+	}
+}
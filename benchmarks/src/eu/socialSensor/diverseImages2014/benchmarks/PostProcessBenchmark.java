@@ -0,0 +1,45 @@
+package eu.socialSensor.diverseImages2014.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.socialSensor.diverseImages2014.diversification.PostProcessRelevanceRanking2014;
+import eu.socialSensor.diverseImages2014.diversification.PostProcessRelevanceRanking2014.diversityAggregationMethods;
+
+/**
+ * Benchmarks the ReDiv re-ranking (PostProcessRelevanceRanking2014.postProcessRD) of all images of the
+ * synthetic location with each diversity aggregation method. The precomputed pairwise distances are loaded
+ * once per trial, outside the measured time.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostProcessBenchmark {
+
+	@Param({ "AVG", "MIN" })
+	public diversityAggregationMethods method;
+
+	private PostProcessRelevanceRanking2014 pp;
+
+	@Setup
+	public void setUp(SyntheticCollectionState state) throws Exception {
+		pp = new PostProcessRelevanceRanking2014(method, state.collection, state.features, state.norms,
+				state.dfuncs, null, false);
+	}
+
+	@Benchmark
+	public ArrayList<Long> postProcessRD(SyntheticCollectionState state) throws Exception {
+		return pp.postProcessRD(state.relevanceOrdered, 0.5, state.relevanceOrdered.size());
+	}
+}
@@ -0,0 +1,35 @@
+package eu.socialSensor.diverseImages2014.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import eu.socialSensor.diverseImages2014.datasetCreation.PairWiseDistanceComputation;
+import eu.socialSensor.diverseImages2014.utils.PairwiseDistanceMatrix;
+
+/**
+ * Benchmarks reading the precomputed pairwise distances of the synthetic location from text and from
+ * binary files.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadPairwiseDistancesBenchmark {
+
+	@Benchmark
+	public ArrayList<PairwiseDistanceMatrix> readText(SyntheticCollectionState state) throws Exception {
+		return PairWiseDistanceComputation.readTextPairwiseDistances(state.collectionPath, state.features,
+				state.norms, state.dfuncs, SyntheticCollectionState.locationId, state.imageIds);
+	}
+
+	@Benchmark
+	public ArrayList<PairwiseDistanceMatrix> readBinary(SyntheticCollectionState state) throws Exception {
+		return PairWiseDistanceComputation.readPairwiseDistances(state.collectionPath, state.features,
+				state.norms, state.dfuncs, SyntheticCollectionState.locationId, state.imageIds);
+	}
+}
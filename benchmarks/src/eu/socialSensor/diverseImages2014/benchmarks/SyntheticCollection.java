@@ -0,0 +1,146 @@
+package eu.socialSensor.diverseImages2014.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import eu.socialSensor.diverseImages2014.MEDI2014Collection;
+
+/**
+ * Writes a synthetic collection with the same folder structure as the MediaEval 2014 collections, so that
+ * it can be loaded with {@link MEDI2014Collection}. Each location has the given number of images (with empty
+ * image files), random visual features of the given dimension, a Wikipedia text file and ground truth where
+ * about 70% of the images are relevant and are spread over 5 clusters. Feature types are named F0, F1, ...
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class SyntheticCollection {
+
+	public static final int numClusters = 5;
+
+	/**
+	 * Returns the names of the synthetic feature types.
+	 *
+	 * @param numFeatures
+	 * @return
+	 */
+	public static String[] getFeatureNames(int numFeatures) {
+		String[] featureNames = new String[numFeatures];
+		for (int f = 0; f < numFeatures; f++) {
+			featureNames[f] = "F" + f;
+		}
+		return featureNames;
+	}
+
+	/**
+	 * Returns the id of the i-th image of the given location.
+	 *
+	 * @param locationId
+	 * @param i
+	 * @return
+	 */
+	public static long getImageId(int locationId, int i) {
+		return locationId * 1000000L + i;
+	}
+
+	/**
+	 * Writes the collection.
+	 *
+	 * @param rootDir
+	 * @param numLocations
+	 * @param numImages
+	 *            Number of images per location
+	 * @param numFeatures
+	 * @param dimension
+	 *            Dimension of all feature types
+	 * @param seed
+	 * @throws Exception
+	 */
+	public static void write(String rootDir, int numLocations, int numImages, int numFeatures, int dimension,
+			long seed) throws Exception {
+		Random rand = new Random(seed);
+		String[] folders = { "xml", "img", "gt/dGT", "gt/rGT", "txtwiki", "descvis/img", "distances" };
+		for (String folder : folders) {
+			new File(rootDir + "/" + folder).mkdirs();
+		}
+		String[] featureNames = getFeatureNames(numFeatures);
+
+		BufferedWriter topics = new BufferedWriter(new FileWriter(rootDir + "/topics.xml"));
+		topics.write("<topics>\n");
+		for (int locationId = 1; locationId <= numLocations; locationId++) {
+			String name = "location" + locationId;
+			topics.write("<topic>\n<number>" + locationId + "</number>\n<title>" + name + "</title>\n");
+			topics.write("<latitude>0.0</latitude>\n<longitude>0.0</longitude>\n");
+			topics.write("<wiki>http://en.wikipedia.org/wiki/" + name + "</wiki>\n</topic>\n");
+
+			new File(rootDir + "/img/" + name).mkdirs();
+			BufferedWriter xml = new BufferedWriter(new FileWriter(rootDir + "/xml/" + name + ".xml"));
+			xml.write("<photos>\n");
+			for (int i = 0; i < numImages; i++) {
+				long id = getImageId(locationId, i);
+				xml.write("<photo date_taken=\"2014-01-01 00:00:00\" description=\"\" id=\"" + id
+						+ "\" latitude=\"0\" license=\"1\" longitude=\"0\" nbComments=\"" + (i % 5)
+						+ "\" rank=\"" + (i + 1) + "\" tags=\"\" title=\"\" url_b=\"\" username=\"\" views=\""
+						+ (i * 3) + "\"/>\n");
+				new File(rootDir + "/img/" + name + "/" + id + ".jpg").createNewFile();
+			}
+			xml.write("</photos>\n");
+			xml.close();
+
+			BufferedWriter wiki = new BufferedWriter(new FileWriter(rootDir + "/txtwiki/" + name + ".txt"));
+			wiki.write("Synthetic location " + name + "\n");
+			wiki.close();
+
+			BufferedWriter dcluster = new BufferedWriter(new FileWriter(rootDir + "/gt/dGT/" + name
+					+ " dclusterGT.txt"));
+			for (int c = 1; c <= numClusters; c++) {
+				dcluster.write(c + ",cluster " + c + "\n");
+			}
+			dcluster.close();
+			BufferedWriter dgt = new BufferedWriter(new FileWriter(rootDir + "/gt/dGT/" + name + " dGT.txt"));
+			BufferedWriter rgt = new BufferedWriter(new FileWriter(rootDir + "/gt/rGT/" + name + " rGT.txt"));
+			for (int i = 0; i < numImages; i++) {
+				long id = getImageId(locationId, i);
+				boolean relevant = rand.nextDouble() < 0.7;
+				if (relevant) {
+					dgt.write(id + "," + (rand.nextInt(numClusters) + 1) + "\n");
+				}
+				rgt.write(id + "," + (relevant ? 1 : 0) + "\n");
+			}
+			dgt.close();
+			rgt.close();
+
+			for (String featureName : featureNames) {
+				BufferedWriter csv = new BufferedWriter(new FileWriter(rootDir + "/descvis/img/" + name + " "
+						+ featureName + ".csv"));
+				for (int i = 0; i < numImages; i++) {
+					csv.write(String.valueOf(getImageId(locationId, i)));
+					for (int d = 0; d < dimension; d++) {
+						csv.write("," + (float) (rand.nextDouble() * 10));
+					}
+					csv.write("\n");
+				}
+				csv.close();
+			}
+		}
+		topics.write("</topics>\n");
+		topics.close();
+	}
+
+	/**
+	 * @param args
+	 *            [0] root folder of the collection<br>
+	 *            [1] number of locations<br>
+	 *            [2] number of images per location<br>
+	 *            [3] number of feature types<br>
+	 *            [4] dimension of each feature type<br>
+	 *            [5] random seed (optional, default 1)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+		write(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Integer.parseInt(args[4]), seed);
+	}
+}
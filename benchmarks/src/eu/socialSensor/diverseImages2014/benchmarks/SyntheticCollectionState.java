@@ -0,0 +1,107 @@
+package eu.socialSensor.diverseImages2014.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import eu.socialSensor.diverseImages2014.MEDI2014Collection;
+import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.datasetCreation.PairWiseDistanceComputation;
+import eu.socialSensor.diverseImages2014.utils.RankedImageList;
+
+/**
+ * A synthetic collection (see {@link SyntheticCollection}) with a single location, written to a temporary
+ * folder and loaded once per trial. All benchmarks work on one location at a time. The pairwise distances
+ * of the location are precomputed both in the text and in the binary format, the binary files being written
+ * last so that they are the ones used by PairWiseDistanceComputation.readPairwiseDistances. Features with an
+ * even index use the Euclidean distance and the others the cosine distance.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+@State(Scope.Benchmark)
+public class SyntheticCollectionState {
+
+	public static final int locationId = 1;
+
+	/** number of images of the location */
+	@Param({ "300" })
+	public int numImages;
+
+	/** dimension of each feature type */
+	@Param({ "128", "4096" })
+	public int dimension;
+
+	/** number of feature types */
+	@Param({ "2" })
+	public int numFeatures;
+
+	public String collectionPath;
+
+	public String[] features;
+
+	public String[] norms;
+
+	public String[] dfuncs;
+
+	public MEDI2014Collection collection;
+
+	public long[] imageIds;
+
+	/** the vectors of the first feature type, in the order of the images */
+	public double[][] vecs;
+
+	/** all images of the location, ordered by a synthetic relevance score */
+	public RankedImageList relevanceOrdered;
+
+	@Setup
+	public void setUp() throws Exception {
+		collectionPath = Files.createTempDirectory("synthetic-collection").toString() + File.separator;
+		SyntheticCollection.write(collectionPath, 1, numImages, numFeatures, dimension, 1);
+		features = SyntheticCollection.getFeatureNames(numFeatures);
+		norms = new String[numFeatures];
+		dfuncs = new String[numFeatures];
+		for (int f = 0; f < numFeatures; f++) {
+			norms[f] = "l2";
+			dfuncs[f] = f % 2 == 0 ? "euclidean" : "cosine";
+		}
+		collection = new MEDI2014Collection(collectionPath);
+		collection.loadAll(false, features, norms);
+		MEDI2014Location location = collection.getLocationList().get(0);
+		imageIds = location.getAllImageIds();
+		vecs = new double[imageIds.length][];
+		for (int r = 0; r < vecs.length; r++) {
+			vecs[r] = location.getFeatureMatrix(0).getRow(r);
+		}
+		relevanceOrdered = new RankedImageList(locationId, imageIds.length);
+		for (int i = 0; i < imageIds.length; i++) {
+			relevanceOrdered.add(imageIds[i], 1.0 / (i + 1));
+		}
+
+		ArrayList<MEDI2014Location> locations = collection.getLocationList();
+		PairWiseDistanceComputation.computeAllPairwiseDistances(collectionPath, locations, features, norms,
+				dfuncs, 1, false);
+		PairWiseDistanceComputation.computeAllPairwiseDistances(collectionPath, locations, features, norms,
+				dfuncs, 1, true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		delete(new File(collectionPath));
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
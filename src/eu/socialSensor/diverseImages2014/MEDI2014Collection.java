@@ -2,6 +2,11 @@ package eu.socialSensor.diverseImages2014;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -27,6 +32,13 @@ public class MEDI2014Collection {
 
 	private ArrayList<MEDI2014Location> locationList;
 
+	/**
+	 * How feature vectors are stored by the locations, see
+	 * {@link MEDI2014Location#setFeatureStorage(boolean, boolean)}.
+	 */
+	private boolean singlePrecisionFeatures = false;
+	private boolean offHeapFeatures = false;
+
 	public MEDI2014Collection(String newDir) {
 		setRootDir(newDir);
 		locationList = new ArrayList<MEDI2014Location>();
@@ -40,6 +52,19 @@ public class MEDI2014Collection {
 		locationList.add(location);
 	}
 
+	/**
+	 * Sets how the feature vectors of the locations loaded by the next call to loadAll are stored.
+	 * 
+	 * @param singlePrecision
+	 *            If true, vectors are stored as floats, otherwise as doubles
+	 * @param offHeap
+	 *            If true, vectors are stored outside the Java heap
+	 */
+	public void setFeatureStorage(boolean singlePrecision, boolean offHeap) {
+		this.singlePrecisionFeatures = singlePrecision;
+		this.offHeapFeatures = offHeap;
+	}
+
 	/**
 	 * 
 	 * Read all locations from master XML topics file
@@ -52,6 +77,22 @@ public class MEDI2014Collection {
 		loadAll(Integer.MAX_VALUE, loadWiki, featureTypes, normalizations);
 	}
 
+	/**
+	 * Same as {@link #loadAll(int, boolean, String[], String[], int)} using one thread per available
+	 * processor.
+	 * 
+	 * @param maxToRead
+	 * @param loadWiki
+	 * @param featureTypes
+	 * @param normalizations
+	 * @throws Exception
+	 */
+	public void loadAll(int maxToRead, boolean loadWiki, String[] featureTypes, String[] normalizations)
+			throws Exception {
+		loadAll(maxToRead, loadWiki, featureTypes, normalizations,
+				Runtime.getRuntime().availableProcessors());
+	}
+
 	/**
 	 * Read some (or all) locations from master XML topics file. Limit number of locations to read for faster
 	 * run-time during development.
@@ -65,17 +106,21 @@ public class MEDI2014Collection {
 	 * <li>Selected visual attributes for the Wikipedia images of the location.</li>
 	 * <li>Ground truth info for each location, if this is a development collection.</li>
 	 * </ol>
+	 * The master xml file is read by the calling thread and the files of each location are then loaded by a
+	 * pool of threads. Locations are added to the location list in the order of the master xml file.
 	 * 
-	 * @param newDir
-	 * @param topicsFile
 	 * @param maxToRead
+	 * @param loadWiki
+	 * @param featureTypes
+	 * @param normalizations
+	 * @param numThreads
+	 *            Number of locations that are loaded concurrently, 1 loads them in the calling thread
 	 * @throws Exception
 	 */
-	public void loadAll(int maxToRead, boolean loadWiki, String[] featureTypes, String[] normalizations)
-			throws Exception {
+	public void loadAll(int maxToRead, final boolean loadWiki, String[] featureTypes,
+			String[] normalizations, int numThreads) throws Exception {
 		// the original topics of devset and testset collections were both rename to topics.xml for simplicity
 		String topicsFile = "topics.xml";
-		int numRead = 0;
 
 		// reading the master xml file for the collection
 		File fXmlFile = new File(rootDir + topicsFile);
@@ -87,36 +132,85 @@ public class MEDI2014Collection {
 		System.out.println("Reading " + nList.getLength() + " location(s) from "
 				+ fXmlFile.getCanonicalPath());
 
-		for (int i = 0; i < nList.getLength(); i++) {
+		// location objects are created here because the DOM tree is not thread-safe
+		ArrayList<MEDI2014Location> toLoad = new ArrayList<MEDI2014Location>();
+		ArrayList<Integer> topicIndices = new ArrayList<Integer>();
+		for (int i = 0; i < nList.getLength() && toLoad.size() < maxToRead; i++) {
 			Node nNode = nList.item(i);
 			if (nNode.getNodeType() == Node.ELEMENT_NODE) {
 				Element eElement = (Element) nNode;
-				// create location object
 				MEDI2014Location loc = new MEDI2014Location(eElement, rootDir, featureTypes, normalizations);
-				// System.out.println("Loading flickr images..");
-				loc.loadImagesFromXML(); // load each image's metadata
-				loc.loadImageFeatures();
-				// System.out.println("Loading wiki images..");
-				if (loadWiki) {
-					loc.loadWikiImages();
-					loc.loadImageFeaturesWiki(); // wikiImages are basically their feature vectors!!!
+				loc.setFeatureStorage(singlePrecisionFeatures, offHeapFeatures);
+				toLoad.add(loc);
+				topicIndices.add(i);
+			}
+		}
+
+		ExecutorService executor = null;
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		if (numThreads > 1 && toLoad.size() > 1) {
+			executor = Executors.newFixedThreadPool(Math.min(numThreads, toLoad.size()));
+			for (final MEDI2014Location loc : toLoad) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						loadLocation(loc, loadWiki);
+						return null;
+					}
+				}));
+			}
+		}
+		try {
+			for (int l = 0; l < toLoad.size(); l++) {
+				MEDI2014Location loc = toLoad.get(l);
+				if (executor == null) {
+					loadLocation(loc, loadWiki);
+				} else {
+					try {
+						futures.get(l).get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) {
+							throw (Exception) e.getCause();
+						}
+						throw e;
+					}
 				}
-				// after the end of the contest, we have gt for the test set as well!!!
-				// if (collectionType == collectionTypes.dev) { // only devset collection has ground truth
-				loc.loadGT();
-				// }
-				System.out.println((i + 1) + ") " + loc.toString());
+				System.out.println((topicIndices.get(l) + 1) + ") " + loc.toString());
 				locationList.add(loc);
-				numRead++;
-				if (numRead >= maxToRead) {
-					System.out.println("Stopped after " + numRead + " locations.");
-					break; // import just a subset of locations, for faster debugging etc.
-				}
 			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		if (toLoad.size() >= maxToRead) {
+			System.out.println("Stopped after " + toLoad.size() + " locations.");
 		}
 		System.out.println("Loaded " + locationList.size() + " location(s).");
 	}
 
+	/**
+	 * Loads the metadata, the features and the ground truth of a single location.
+	 * 
+	 * @param loc
+	 * @param loadWiki
+	 * @throws Exception
+	 */
+	private void loadLocation(MEDI2014Location loc, boolean loadWiki) throws Exception {
+		// System.out.println("Loading flickr images..");
+		loc.loadImagesFromXML(); // load each image's metadata
+		loc.loadImageFeatures();
+		// System.out.println("Loading wiki images..");
+		if (loadWiki) {
+			loc.loadWikiImages();
+			loc.loadImageFeaturesWiki(); // wikiImages are basically their feature vectors!!!
+		}
+		// after the end of the contest, we have gt for the test set as well!!!
+		// if (collectionType == collectionTypes.dev) { // only devset collection has ground truth
+		loc.loadGT();
+		// }
+	}
+
 	private void setRootDir(String newDir) {
 		if (!newDir.endsWith(File.separator)) {
 			newDir = newDir + File.separator;
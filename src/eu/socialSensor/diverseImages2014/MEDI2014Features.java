@@ -1,12 +1,14 @@
 package eu.socialSensor.diverseImages2014;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 
+import eu.socialSensor.diverseImages2014.datasetCreation.BinaryFeatureFiles;
+import eu.socialSensor.diverseImages2014.utils.CsvFeatureReader;
+import eu.socialSensor.diverseImages2014.utils.FeatureMatrix;
 import eu.socialSensor.diverseImages2014.utils.Normalizations;
 
 /**
@@ -44,6 +46,12 @@ public class MEDI2014Features {
 	protected double[] GEO;
 	protected double[] BOW10K;
 
+	/**
+	 * Whether the parsed feature files are cached in binary form (see {@link BinaryFeatureFiles}) so that
+	 * subsequent runs do not parse them again.
+	 */
+	public static boolean useFeatureCache = true;
+
 	/**
 	 * Parse a CSV file of a named class of attributes (name must match a field of this object)
 	 * 
@@ -53,32 +61,154 @@ public class MEDI2014Features {
 	public static HashMap<Long, double[]> parseFile(String rootDir, String locationName, String featureName,
 			String normalization) throws Exception {
 		HashMap<Long, double[]> allImagesFeatures = new HashMap<Long, double[]>();
-		String filename = rootDir + "descvis" + File.separator + "img" + File.separator + locationName;
-		if (!featureName.startsWith("_")) {// add a " " before the feature name
-			filename += " " + featureName + ".csv";
-		} else {
-			filename += featureName + ".csv";
+		BinaryFeatureFiles.Vectors vectors = loadVectors(rootDir, locationName, featureName, normalization);
+		long[] ids = vectors.getIds();
+		for (int i = 0; i < ids.length; i++) {
+			allImagesFeatures.put(ids[i], vectors.getVector(i));
 		}
+		return allImagesFeatures;
+	}
 
-		BufferedReader reader = new BufferedReader(new FileReader(filename));
-		String line = null;
-		double[] attrVals = null;
-		while ((line = reader.readLine()) != null) {
-			String[] parts = line.split(",");
-			long id = Long.parseLong(parts[0]);// the first element is always the image id
-			attrVals = new double[parts.length - 1];
-			for (int i = 1; i < parts.length; i++) {
-				double d = Double.parseDouble(parts[i]);
-				attrVals[i - 1] = d;
+	/**
+	 * Same as {@link #parseFile(String, String, String, String)} but stores the vectors in a
+	 * {@link FeatureMatrix} whose rows follow the given positions of the images. Vectors of images that are
+	 * not in the given positions are skipped. When the vectors of the file are already in the order of the
+	 * positions, the matrix is a view of the (memory-mapped) cache file instead of a copy.
+	 * 
+	 * @param rootDir
+	 * @param locationName
+	 * @param featureName
+	 * @param normalization
+	 * @param imageIdToPosition
+	 *            Maps each image id to its row in the matrix
+	 * @param numRows
+	 * @param singlePrecision
+	 * @param offHeap
+	 * @return
+	 * @throws Exception
+	 */
+	public static FeatureMatrix parseFile(String rootDir, String locationName, String featureName,
+			String normalization, HashMap<Long, Integer> imageIdToPosition, int numRows,
+			boolean singlePrecision, boolean offHeap) throws Exception {
+		BinaryFeatureFiles.Vectors vectors = loadVectors(rootDir, locationName, featureName, normalization);
+		long[] ids = vectors.getIds();
+		if (ids.length == 0) {
+			throw new Exception("No feature vectors in "
+					+ getFileName(rootDir, "img", locationName, featureName));
+		}
+		int dimension = vectors.getDimension();
+
+		// check if the vectors can be used as they are
+		boolean inRowOrder = ids.length == numRows;
+		for (int i = 0; inRowOrder && i < ids.length; i++) {
+			Integer position = imageIdToPosition.get(ids[i]);
+			inRowOrder = position != null && position == i;
+		}
+		if (inRowOrder && !singlePrecision && (vectors.getValues().isDirect() || !offHeap)) {
+			boolean[] present = new boolean[numRows];
+			Arrays.fill(present, true);
+			return new FeatureMatrix(dimension, vectors.getValues(), present);
+		}
+
+		FeatureMatrix matrix = new FeatureMatrix(numRows, dimension, singlePrecision, offHeap);
+		double[] attrVals = new double[dimension];
+		for (int i = 0; i < ids.length; i++) {
+			Integer position = imageIdToPosition.get(ids[i]);
+			if (position != null) {
+				vectors.getVector(i, attrVals);
+				matrix.setRow(position, attrVals);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Returns the normalized vectors of a feature file from its binary cache if the cache is valid, otherwise
+	 * parses the CSV file and writes the cache.
+	 * 
+	 * @param rootDir
+	 * @param locationName
+	 * @param featureName
+	 * @param normalization
+	 * @return
+	 * @throws Exception
+	 */
+	private static BinaryFeatureFiles.Vectors loadVectors(String rootDir, String locationName,
+			String featureName, String normalization) throws Exception {
+		String filename = getFileName(rootDir, "img", locationName, featureName);
+		File sourceFile = new File(filename);
+		String cacheFilename = BinaryFeatureFiles.getFileName(rootDir, locationName, featureName,
+				normalization);
+		if (useFeatureCache) {
+			BinaryFeatureFiles.Vectors cached = BinaryFeatureFiles.read(cacheFilename, sourceFile);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		long[] ids = new long[256];
+		double[] values = null;
+		int numVectors = 0;
+		int dimension = 0;
+		CsvFeatureReader reader = new CsvFeatureReader(filename);
+		while (reader.nextLine()) {
+			long id = reader.nextLong();// the first element is always the image id
+			if (numVectors == ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+				values = Arrays.copyOf(values, ids.length * dimension);
+			}
+			// the vector is parsed directly into its row
+			int offset = numVectors * dimension;
+			if (values == null) { // the dimension is known after parsing the first vector
+				double[] attrVals = reader.nextDoubles();
+				dimension = attrVals.length;
+				values = new double[ids.length * dimension];
+				System.arraycopy(attrVals, 0, values, 0, dimension);
+			} else if (reader.nextDoubles(values, offset, offset + dimension) != dimension) {
+				reader.close();
+				throw new Exception("Feature vectors of different lengths in " + filename);
 			}
 
 			// apply the appropriate normalization if needed
-			attrVals = Normalizations.normalize(attrVals, normalization);
+			Normalizations.normalize(values, offset, offset + dimension, normalization);
 
-			allImagesFeatures.put(id, attrVals);
+			ids[numVectors] = id;
+			numVectors++;
 		}
 		reader.close();
-		return allImagesFeatures;
+		values = values == null ? new double[0] : Arrays.copyOf(values, numVectors * dimension);
+		BinaryFeatureFiles.Vectors vectors = new BinaryFeatureFiles.Vectors(Arrays.copyOf(ids, numVectors),
+				dimension, DoubleBuffer.wrap(values));
+
+		if (useFeatureCache) {
+			try {
+				BinaryFeatureFiles.write(cacheFilename, sourceFile, vectors);
+			} catch (Exception e) { // e.g. a read-only collection, the features are still returned
+				System.err.println("Could not write feature cache " + cacheFilename + ": " + e.getMessage());
+			}
+		}
+		return vectors;
+	}
+
+	/**
+	 * Returns the full path to the CSV file of the given feature.
+	 * 
+	 * @param rootDir
+	 * @param imageType
+	 *            img or imgwiki
+	 * @param locationName
+	 * @param featureName
+	 * @return
+	 */
+	private static String getFileName(String rootDir, String imageType, String locationName,
+			String featureName) {
+		String filename = rootDir + "descvis" + File.separator + imageType + File.separator + locationName;
+		if (!featureName.startsWith("_")) {// add a " " before the feature name
+			filename += " " + featureName + ".csv";
+		} else {
+			filename += featureName + ".csv";
+		}
+		return filename;
 	}
 
 	public static ArrayList<double[]> parseFileWiki(String rootDir, String locationName, String featureName,
@@ -91,37 +221,20 @@ public class MEDI2014Features {
 			filename += featureName + ".csv";
 		}
 
-		BufferedReader reader = new BufferedReader(new FileReader(filename));
-		String line = null;
+		CsvFeatureReader reader = new CsvFeatureReader(filename);
 		double[] attrVals = null;
-		while ((line = reader.readLine()) != null) {
+		while (reader.nextLine()) {
 			// if the wiki image name contains a comma, the 2nd element will not be a number!
-			// count the number of leading not a number parts
-			String[] parts = line.split(",");
-			int partsToSkip = 0;
-			if (parts[0].equals("wiki")) { // this is a Wikipedia image indicator
-				partsToSkip = 1;
-			} else { // count parts to skip
-				for (int i = 0; i < parts.length; i++) {
-					try {
-						Double.parseDouble(parts[i]);
-					} catch (NumberFormatException e) {
-						partsToSkip++;
-						continue;
-					}
-					break;
+			// skip the leading not a number parts, they compose the image id
+			if (reader.nextTokenEquals("wiki")) { // this is a Wikipedia image indicator
+				reader.skipToken();
+			} else {
+				while (reader.hasNextToken() && !reader.nextTokenIsDouble()) {
+					reader.skipToken();
 				}
 			}
-			// the partsToSkip first elements compose the image id
-			// long id = Long.parseLong(parts[0]+parts[1]+...+parts[partsToSkip-1]);
-			// truncate the parts array to keep only the numeric elements
-			parts = Arrays.copyOfRange(parts, partsToSkip, parts.length);
-
-			attrVals = new double[parts.length];
-			for (int i = 0; i < parts.length; i++) {
-				double d = Double.parseDouble(parts[i]);
-				attrVals[i] = d;
-			}
+
+			attrVals = reader.nextDoubles();
 
 			// apply the appropriate normalization if needed
 			attrVals = Normalizations.normalize(attrVals, normalization);
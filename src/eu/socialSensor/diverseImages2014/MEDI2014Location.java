@@ -30,6 +30,8 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import eu.socialSensor.diverseImages2014.utils.FeatureMatrix;
+
 /**
  * This class represents a query location and its ground truth.
  * 
@@ -68,10 +70,20 @@ public class MEDI2014Location {
 	private String[] featureTypes;
 
 	/**
-	 * Each element of the ArrayList is a HashMap that stores the fVecs of all images for a certain feature
-	 * type.
+	 * Each element of the ArrayList is a matrix that stores the fVecs of all images for a certain feature
+	 * type. Row i of each matrix holds the vector of the i-th image of imageList.
+	 */
+	private ArrayList<FeatureMatrix> fVecs;
+
+	/**
+	 * Whether feature vectors are stored in single precision.
 	 */
-	private ArrayList<HashMap<Long, double[]>> fVecs;
+	private boolean singlePrecisionFeatures = false;
+
+	/**
+	 * Whether feature vectors are stored outside the Java heap.
+	 */
+	private boolean offHeapFeatures = false;
 
 	private HashMap<Long, Integer> imageIdToArraylistPosition;
 
@@ -198,8 +210,36 @@ public class MEDI2014Location {
 		return dontKnowImages;
 	}
 
+	/**
+	 * Returns the feature vectors of all images, one HashMap per feature type. The HashMaps are copies of the
+	 * feature matrices and are created on each call, {@link #getFeatureMatrix(int)} should be preferred.
+	 * 
+	 * @return
+	 */
 	public ArrayList<HashMap<Long, double[]>> getFeatures() {
-		return fVecs;
+		ArrayList<HashMap<Long, double[]>> features = new ArrayList<HashMap<Long, double[]>>();
+		for (FeatureMatrix matrix : fVecs) {
+			HashMap<Long, double[]> theseFeatures = new HashMap<Long, double[]>();
+			for (int i = 0; i < imageList.size(); i++) {
+				if (matrix.hasRow(i)) {
+					theseFeatures.put(imageList.get(i).getId(), matrix.getRow(i));
+				}
+			}
+			features.add(theseFeatures);
+		}
+		return features;
+	}
+
+	/**
+	 * Returns the matrix with the vectors of the given feature type. Row i of the matrix holds the vector of
+	 * the i-th image of {@link #getImageList()}.
+	 * 
+	 * @param featureIndex
+	 *            The index of the feature type, as in the constructor
+	 * @return
+	 */
+	public FeatureMatrix getFeatureMatrix(int featureIndex) {
+		return fVecs.get(featureIndex);
 	}
 
 	public ArrayList<ArrayList<double[]>> getFeaturesWiki() {
@@ -214,8 +254,11 @@ public class MEDI2014Location {
 	 */
 	public double[][] getFeatureVectors(long id) {
 		double fvecs[][] = new double[fVecs.size()][];
-		for (int i = 0; i < fVecs.size(); i++) {
-			fvecs[i] = fVecs.get(i).get(id);
+		Integer pos = imageIdToArraylistPosition.get(id);
+		if (pos != null) {
+			for (int i = 0; i < fVecs.size(); i++) {
+				fvecs[i] = fVecs.get(i).getRow(pos);
+			}
 		}
 		return fvecs;
 	}
@@ -504,15 +547,34 @@ public class MEDI2014Location {
 		loadRGT();
 	}
 
+	/**
+	 * Loads the vectors of each feature type into a matrix. Should be called after
+	 * {@link #loadImagesFromXML()} because the rows of the matrices follow the image list.
+	 * 
+	 * @throws Exception
+	 */
 	public void loadImageFeatures() throws Exception {
-		fVecs = new ArrayList<HashMap<Long, double[]>>();
+		fVecs = new ArrayList<FeatureMatrix>();
 		for (int i = 0; i < featureTypes.length; i++) {
-			HashMap<Long, double[]> theseFeatures = MEDI2014Features.parseFile(rootDir, locationName,
-					featureTypes[i], norms[i]);
+			FeatureMatrix theseFeatures = MEDI2014Features.parseFile(rootDir, locationName, featureTypes[i],
+					norms[i], imageIdToArraylistPosition, imageList.size(), singlePrecisionFeatures,
+					offHeapFeatures);
 			fVecs.add(theseFeatures);
 		}
 	}
 
+	/**
+	 * Sets how feature vectors are stored by {@link #loadImageFeatures()}. By default they are stored on the
+	 * heap in double precision.
+	 * 
+	 * @param singlePrecision
+	 * @param offHeap
+	 */
+	public void setFeatureStorage(boolean singlePrecision, boolean offHeap) {
+		this.singlePrecisionFeatures = singlePrecision;
+		this.offHeapFeatures = offHeap;
+	}
+
 	public void loadImageFeaturesWiki() throws Exception {
 		featuresWiki = new ArrayList<ArrayList<double[]>>();
 		for (int i = 0; i < featureTypes.length; i++) {
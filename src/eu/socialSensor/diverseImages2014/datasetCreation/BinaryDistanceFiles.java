@@ -0,0 +1,237 @@
+package eu.socialSensor.diverseImages2014.datasetCreation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import eu.socialSensor.diverseImages2014.MEDI2014Collection;
+import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.utils.PairwiseDistanceMatrix;
+
+/**
+ * Reads and writes pairwise distance files in a compact binary format that can be memory-mapped and used
+ * without any parsing. All values are little-endian and the layout of a file is:
+ * <ol>
+ * <li>magic number (int) and format version (int)</li>
+ * <li>feature type, normalization and distance function, each as a length-prefixed UTF-8 string</li>
+ * <li>size in bytes of each distance value (int), 4 for float or 8 for double</li>
+ * <li>number of images n (int) followed by the n image ids (long), zero-padded to a multiple of 8 bytes</li>
+ * <li>the n*(n-1)/2 distances of the packed upper-triangular matrix, row by row</li>
+ * </ol>
+ * The main method of this class converts the text distance files written by
+ * {@link PairWiseDistanceComputation} into this format. Files are written to a temporary file which is then
+ * renamed, so that concurrent runs never map a partially written file.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class BinaryDistanceFiles {
+
+	public static final int MAGIC = 0x4D444446; // "MDDF"
+	public static final int VERSION = 1;
+
+	public static final String EXTENSION = ".bin";
+
+	/**
+	 * Returns the full path to the binary distance file of the given feature type and location.
+	 *
+	 * @param collectionPath
+	 * @param featureType
+	 *            feature-norm-dfunc
+	 * @param locationId
+	 * @return
+	 */
+	public static String getFileName(String collectionPath, String featureType, int locationId) {
+		return collectionPath + "/distances/" + featureType + "_" + locationId + EXTENSION;
+	}
+
+	/**
+	 * Writes the given matrix in the binary format.
+	 *
+	 * @param fileName
+	 * @param feature
+	 * @param norm
+	 * @param dfunc
+	 * @param distances
+	 * @param singlePrecision
+	 *            If true, distances are stored as floats, otherwise as doubles
+	 * @throws Exception
+	 */
+	public static void write(String fileName, String feature, String norm, String dfunc,
+			PairwiseDistanceMatrix distances, boolean singlePrecision) throws Exception {
+		byte[][] strings = { feature.getBytes(StandardCharsets.UTF_8), norm.getBytes(StandardCharsets.UTF_8),
+				dfunc.getBytes(StandardCharsets.UTF_8) };
+		int n = distances.size();
+		int numPairs = PairwiseDistanceMatrix.numPairs(n);
+		int valueSize = singlePrecision ? 4 : 8;
+		int headerSize = headerSize(strings, n);
+
+		ByteBuffer buffer = ByteBuffer.allocate(headerSize + numPairs * valueSize);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		for (byte[] string : strings) {
+			buffer.putInt(string.length);
+			buffer.put(string);
+		}
+		buffer.putInt(valueSize);
+		buffer.putInt(n);
+		for (int i = 0; i < n; i++) {
+			buffer.putLong(distances.getImageId(i));
+		}
+		buffer.position(headerSize);
+		for (int k = 0; k < numPairs; k++) {
+			if (singlePrecision) {
+				buffer.putFloat((float) distances.getPacked(k));
+			} else {
+				buffer.putDouble(distances.getPacked(k));
+			}
+		}
+		buffer.flip();
+
+		File distancesFile = new File(fileName);
+		File tempFile = File.createTempFile(distancesFile.getName(), ".tmp", distancesFile.getParentFile());
+		try {
+			RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+			FileChannel channel = file.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			file.close();
+			try {
+				Files.move(tempFile.toPath(), distancesFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), distancesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tempFile.delete(); // no-op if the file has been moved
+		}
+	}
+
+	/**
+	 * Size of the header including the padding that aligns the distances block to 8 bytes.
+	 */
+	private static int headerSize(byte[][] strings, int n) {
+		int size = 4 + 4;
+		for (byte[] string : strings) {
+			size += 4 + string.length;
+		}
+		size += 4 + 4 + n * 8;
+		return (size + 7) & ~7;
+	}
+
+	/**
+	 * Memory-maps the given binary distance file (read-only) and returns a matrix that is backed by the
+	 * mapping. The feature type stored in the header is checked against the expected one.
+	 *
+	 * @param fileName
+	 * @param featureType
+	 *            The expected feature-norm-dfunc or null to skip the check
+	 * @return
+	 * @throws Exception
+	 */
+	public static PairwiseDistanceMatrix read(String fileName, String featureType) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		FileChannel channel = file.getChannel();
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		// the mapping remains valid after the channel is closed
+		file.close();
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (mapped.getInt() != MAGIC) {
+			throw new Exception("Not a binary distance file: " + fileName);
+		}
+		if (mapped.getInt() != VERSION) {
+			throw new Exception("Unsupported binary distance file version: " + fileName);
+		}
+		byte[][] strings = new byte[3][];
+		for (int s = 0; s < strings.length; s++) {
+			strings[s] = new byte[mapped.getInt()];
+			mapped.get(strings[s]);
+		}
+		String fileFeatureType = new String(strings[0], StandardCharsets.UTF_8) + "-"
+				+ new String(strings[1], StandardCharsets.UTF_8) + "-"
+				+ new String(strings[2], StandardCharsets.UTF_8);
+		if (featureType != null && !featureType.equals(fileFeatureType)) {
+			throw new Exception("Wrong feature type!");
+		}
+		int valueSize = mapped.getInt();
+		int n = mapped.getInt();
+		long[] imageIds = new long[n];
+		mapped.asLongBuffer().get(imageIds);
+
+		mapped.position(headerSize(strings, n));
+		ByteBuffer block = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int numPairs = PairwiseDistanceMatrix.numPairs(n);
+		if (block.capacity() != numPairs * valueSize) {
+			throw new Exception("Truncated binary distance file: " + fileName);
+		}
+		if (valueSize == 8) {
+			return new PairwiseDistanceMatrix(imageIds, block.asDoubleBuffer());
+		} else if (valueSize == 4) {
+			return new PairwiseDistanceMatrix(imageIds, block.asFloatBuffer());
+		} else {
+			throw new Exception("Unsupported distance value size: " + valueSize);
+		}
+	}
+
+	/**
+	 * Converts all text distance files of a collection into binary ones (written next to them).
+	 *
+	 * @param args
+	 *            [0] collection path<br>
+	 *            [1] whether to store distances in single precision (optional, default false)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String collectionPath = args[0];
+		boolean singlePrecision = args.length > 1 && Boolean.parseBoolean(args[1]);
+
+		// the collection is loaded only to get the image ids of each location in the right order
+		MEDI2014Collection collection = new MEDI2014Collection(collectionPath);
+		collection.loadAll(false, new String[0], new String[0]);
+
+		File distancesFolder = new File(collectionPath + "/distances/");
+		File[] textFiles = distancesFolder.listFiles();
+		for (MEDI2014Location location : collection.getLocationList()) {
+			String suffix = "_" + location.getQueryId() + ".txt";
+			for (File textFile : textFiles) {
+				if (!textFile.getName().endsWith(suffix)) {
+					continue;
+				}
+				BufferedReader in = new BufferedReader(new FileReader(textFile));
+				String featureType = in.readLine();
+				in.close();
+				if (!textFile.getName().equals(featureType + suffix)) {
+					continue; // the file name does not match the feature type in its header
+				}
+				// feature-norm-dfunc, the feature name itself may contain dashes
+				int dfuncPos = featureType.lastIndexOf('-');
+				int normPos = featureType.lastIndexOf('-', dfuncPos - 1);
+				String[] features = { featureType.substring(0, normPos) };
+				String[] norms = { featureType.substring(normPos + 1, dfuncPos) };
+				String[] dfuncs = { featureType.substring(dfuncPos + 1) };
+
+				System.out.println("Converting " + textFile.getName());
+				ArrayList<PairwiseDistanceMatrix> distances = PairWiseDistanceComputation
+						.readTextPairwiseDistances(collectionPath, features, norms, dfuncs,
+								location.getQueryId(), location.getAllImageIds());
+				if (!distances.get(0).isComplete()) {
+					throw new Exception("Missing distances in " + textFile.getName());
+				}
+				write(getFileName(collectionPath, featureType, location.getQueryId()), features[0],
+						norms[0], dfuncs[0], distances.get(0), singlePrecision);
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package eu.socialSensor.diverseImages2014.datasetCreation;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A persistent binary cache of the (normalized) feature vectors of a descvis CSV file, so that each CSV file
+ * is parsed only once. A cache file is valid as long as the size and the last modification time of its
+ * source CSV file are the ones recorded in its header, and is memory-mapped when read. All values are
+ * little-endian and the layout of a file is:
+ * <ol>
+ * <li>magic number (int) and format version (int)</li>
+ * <li>size (long) and last modification time (long) of the source file</li>
+ * <li>number of vectors n (int) and dimension d (int)</li>
+ * <li>the n image ids (long), in the order of the source file</li>
+ * <li>the n*d values (double) of the vectors, row by row</li>
+ * </ol>
+ * Cache files are written to a temporary file which is then renamed, so that concurrent runs never read a
+ * partially written cache.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class BinaryFeatureFiles {
+
+	public static final int MAGIC = 0x4D444643; // "MDFC"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+	/**
+	 * The vectors of a feature file, in the order of the file.
+	 */
+	public static class Vectors {
+		private long[] ids;
+		private int dimension;
+		private DoubleBuffer values;
+
+		public Vectors(long[] ids, int dimension, DoubleBuffer values) {
+			this.ids = ids;
+			this.dimension = dimension;
+			this.values = values;
+		}
+
+		public long[] getIds() {
+			return ids;
+		}
+
+		public int getDimension() {
+			return dimension;
+		}
+
+		/**
+		 * Returns the row-major values of the vectors.
+		 */
+		public DoubleBuffer getValues() {
+			return values;
+		}
+
+		/**
+		 * Returns a copy of the i-th vector.
+		 */
+		public double[] getVector(int i) {
+			double[] vector = new double[dimension];
+			getVector(i, vector);
+			return vector;
+		}
+
+		/**
+		 * Copies the i-th vector into the given array.
+		 */
+		public void getVector(int i, double[] vector) {
+			int offset = i * dimension;
+			for (int c = 0; c < dimension; c++) {
+				vector[c] = values.get(offset + c);
+			}
+		}
+	}
+
+	/**
+	 * Returns the full path to the cache file of the given source file and normalization.
+	 *
+	 * @param rootDir
+	 * @param locationName
+	 * @param featureName
+	 * @param normalization
+	 * @return
+	 */
+	public static String getFileName(String rootDir, String locationName, String featureName,
+			String normalization) {
+		return rootDir + "descvis" + File.separator + "cache" + File.separator + locationName + " "
+				+ featureName + "-" + normalization + ".bin";
+	}
+
+	/**
+	 * Memory-maps the given cache file if it is valid for the given source file.
+	 *
+	 * @param fileName
+	 * @param sourceFile
+	 * @return The cached vectors or null if the cache file does not exist or is stale
+	 * @throws Exception
+	 */
+	public static Vectors read(String fileName, File sourceFile) throws Exception {
+		File cacheFile = new File(fileName);
+		if (!cacheFile.exists() || cacheFile.length() < HEADER_SIZE) {
+			return null;
+		}
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+		FileChannel channel = file.getChannel();
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		// the mapping remains valid after the channel is closed
+		file.close();
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+			return null;
+		}
+		if (mapped.getLong() != sourceFile.length() || mapped.getLong() != sourceFile.lastModified()) {
+			return null;
+		}
+		int n = mapped.getInt();
+		int dimension = mapped.getInt();
+		if (mapped.capacity() != HEADER_SIZE + 8L * n + 8L * n * dimension) {
+			throw new Exception("Truncated feature cache file: " + fileName);
+		}
+		long[] ids = new long[n];
+		mapped.asLongBuffer().get(ids);
+		mapped.position(HEADER_SIZE + 8 * n);
+		DoubleBuffer values = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		return new Vectors(ids, dimension, values);
+	}
+
+	/**
+	 * Writes the given vectors to a cache file for the given source file.
+	 *
+	 * @param fileName
+	 * @param sourceFile
+	 * @param vectors
+	 * @throws Exception
+	 */
+	public static void write(String fileName, File sourceFile, Vectors vectors) throws Exception {
+		long[] ids = vectors.getIds();
+		int n = ids.length;
+		long size = HEADER_SIZE + 8L * n + 8L * n * vectors.getDimension();
+		if (size > Integer.MAX_VALUE) {
+			throw new Exception("Feature cache file too large: " + fileName);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(sourceFile.length());
+		buffer.putLong(sourceFile.lastModified());
+		buffer.putInt(n);
+		buffer.putInt(vectors.getDimension());
+		for (int i = 0; i < n; i++) {
+			buffer.putLong(ids[i]);
+		}
+		DoubleBuffer values = vectors.getValues();
+		for (int i = 0; i < n * vectors.getDimension(); i++) {
+			buffer.putDouble(values.get(i));
+		}
+		buffer.flip();
+
+		File cacheFile = new File(fileName);
+		cacheFile.getParentFile().mkdirs();
+		File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+		try {
+			RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+			FileChannel channel = file.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			file.close();
+			try {
+				Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tempFile.delete(); // no-op if the file has been moved
+		}
+	}
+}
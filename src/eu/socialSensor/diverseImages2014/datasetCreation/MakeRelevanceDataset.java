@@ -1,19 +1,35 @@
 package eu.socialSensor.diverseImages2014.datasetCreation;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-
-import org.apache.commons.lang3.ArrayUtils;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
 
 import eu.socialSensor.diverseImages2014.MEDI2014Collection;
 import eu.socialSensor.diverseImages2014.MEDI2014Image;
 import eu.socialSensor.diverseImages2014.MEDI2014ImageBase;
 import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.utils.FeatureMatrix;
 import eu.socialSensor.diverseImages2014.utils.Normalizations;
+import eu.socialSensor.diverseImages2014.utils.ParallelGzipChannel;
+import eu.socialSensor.diverseImages2014.utils.TextChannelWriter;
 
 /**
  * Create ARFF files for use with Weka machine learning toolbox.
@@ -31,6 +47,23 @@ public class MakeRelevanceDataset {
 	 */
 	private int totalLength = 0;
 
+	/**
+	 * number of attributes before the visual features: image id, location id and flickr rank
+	 */
+	private static final int numDefaultFeatures = 3;
+
+	/**
+	 * the length of each feature type and its position in the concatenated vector of an image, computed once
+	 * by {@link #createNormalizationPlan(String[])}
+	 */
+	private int[] featureLengths;
+	private int[] featureOffsets;
+
+	/**
+	 * the position in the concatenated vector where the features that are normalized together start
+	 */
+	private int level1Start;
+
 	private String[] featureTypes;
 
 	private MEDI2014Collection dataStore;
@@ -45,40 +78,165 @@ public class MakeRelevanceDataset {
 	 */
 	public void writeFile(String filename, String[] individualNorms, String normalizeLevel1,
 			String normalizeFinal, boolean sparse) throws Exception {
-		BufferedWriter out = new BufferedWriter(new FileWriter(new File("datasets/relevance/" + filename)));
-		// writing the header of the arff
-		out.write(generateArffHeader());
-		// writing the actual data
-		ArrayList<MEDI2014Location> locs = dataStore.getLocationList();
-		// int locIndex = 0;
-		for (MEDI2014Location loc : locs) {
-			System.out.println(loc.getLocationName());
-			ArrayList<MEDI2014ImageBase> ims = loc.getImageList();
-			for (MEDI2014ImageBase im : ims) {
-				System.out.println("Location: " + loc.getQueryId() + "-" + loc.getLocationName() + " Image: "
-						+ im.getId());
-				// the wikiIndex parameter is not used in this case
-				out.write(imageToARFF(im, loc, individualNorms, normalizeLevel1, normalizeFinal, sparse, 0));
+		writeFile(filename, individualNorms, normalizeLevel1, normalizeFinal, sparse, 1);
+	}
+
+	/**
+	 * Writes header of ARFF file (specifying fieldnames, data types etc) and then appends actual data. With
+	 * more than one thread, the locations are converted concurrently by a pool of threads, each location into
+	 * its own shard file next to the ARFF file. The calling thread appends the shards under the header in the
+	 * order of the location list as soon as they are complete and deletes them, so the resulting file is the
+	 * same as the one written by a single thread.<br>
+	 * If the filename ends with ".gz", the file is gzip-compressed by a {@link ParallelGzipChannel}. With a
+	 * pool of threads, each shard is compressed by the thread that writes it, otherwise the blocks of the
+	 * file are compressed by the given number of threads.
+	 * 
+	 * @param filename
+	 * @param individualNorms
+	 * @param normalizeLevel1
+	 * @param normalizeFinal
+	 * @param sparse
+	 * @param numThreads
+	 *            Number of locations that are converted concurrently, 1 converts them in the calling thread
+	 * @throws Exception
+	 */
+	public void writeFile(String filename, String[] individualNorms, final String normalizeLevel1,
+			final String normalizeFinal, final boolean sparse, int numThreads) throws Exception {
+		String path = "datasets/relevance/" + filename;
+		final ArrayList<MEDI2014Location> locs = dataStore.getLocationList();
+		final boolean compress = filename.endsWith(".gz");
+		boolean parallel = numThreads > 1 && locs.size() > 1;
+		TextChannelWriter out = createWriter(path, compress, parallel ? 1 : numThreads);
+		ExecutorService executor = null;
+		ArrayList<Future<File>> shards = new ArrayList<Future<File>>();
+		int numAppended = 0;
+		try {
+			// writing the header of the arff
+			out.write(generateArffHeader());
+			createNormalizationPlan(individualNorms);
+			WritableByteChannel channel = null;
+			if (parallel) {
+				executor = Executors.newFixedThreadPool(Math.min(numThreads, locs.size()));
+				for (int l = 0; l < locs.size(); l++) {
+					final MEDI2014Location loc = locs.get(l);
+					final File shard = new File(path + "." + l + ".shard");
+					shards.add(executor.submit(new Callable<File>() {
+						@Override
+						public File call() throws Exception {
+							TextChannelWriter shardOut = createWriter(shard.getPath(), compress, 1);
+							try {
+								locationToARFF(shardOut, loc, normalizeLevel1, normalizeFinal, sparse,
+										new double[totalLength]);
+							} finally {
+								shardOut.close();
+							}
+							return shard;
+						}
+					}));
+				}
+				// the shards are appended directly to the file, after the header
+				out.flush();
+				channel = out.getChannel();
+				if (compress) {
+					((ParallelGzipChannel) channel).finish();
+					channel = ((ParallelGzipChannel) channel).getChannel();
+				}
 			}
-			ims = loc.getImageListWiki();
-			int wikiIndex = 0;
-			for (MEDI2014ImageBase im : ims) {
+			// the concatenated vector of each image, reused for all images
+			double[] vector = executor == null ? new double[totalLength] : null;
+			// writing the actual data
+			for (int l = 0; l < locs.size(); l++) {
+				MEDI2014Location loc = locs.get(l);
+				if (executor == null) {
+					locationToARFF(out, loc, normalizeLevel1, normalizeFinal, sparse, vector);
+				} else {
+					File shard;
+					try {
+						shard = shards.get(l).get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) {
+							throw (Exception) e.getCause();
+						}
+						throw e;
+					}
+					appendShard(channel, shard);
+					numAppended++;
+				}
+				System.out.println(loc.getLocationName());
+			}
+		} finally {
+			if (executor != null) {
+				// after a failure, the queued tasks are dropped (their futures never complete) and the
+				// running ones are interrupted. The shards that were not appended are deleted once they have
+				// stopped.
+				executor.shutdownNow();
 				try {
-					out.write(imageToARFF(im, loc, individualNorms, normalizeLevel1, normalizeFinal, sparse,
-							wikiIndex));
-				} catch (Exception e) {
-					System.err.println("Image: " + im.getImageFilename());
-					e.printStackTrace();
-					System.exit(1);
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (int l = numAppended; l < shards.size(); l++) {
+					new File(path + "." + l + ".shard").delete();
 				}
-				wikiIndex++;
 			}
-			// locIndex++;
+			out.close();
 		}
-		out.close();
+	}
+
+	/*
+	 * Creates (or overwrites) the given file, gzip-compressed by the given number of threads if requested.
+	 */
+	private static TextChannelWriter createWriter(String path, boolean compress, int numThreads)
+			throws IOException {
+		WritableByteChannel channel = new FileOutputStream(path).getChannel();
+		if (compress) {
+			channel = new ParallelGzipChannel(channel, numThreads);
+		}
+		return new TextChannelWriter(channel, TextChannelWriter.defaultBufferSize);
+	}
+
+	/*
+	 * Writes the ARFF lines of the images of a location, followed by the lines of its Wikipedia images.
+	 */
+	private void locationToARFF(TextChannelWriter out, MEDI2014Location loc, String normalizeLevel1,
+			String normalizeFinal, boolean sparse, double[] vector) throws Exception {
+		ArrayList<MEDI2014ImageBase> ims = loc.getImageList();
+		for (MEDI2014ImageBase im : ims) {
+			// the wikiIndex parameter is not used in this case
+			imageToARFF(out, im, loc, normalizeLevel1, normalizeFinal, sparse, 0, vector);
+		}
+		ims = loc.getImageListWiki();
+		int wikiIndex = 0;
+		for (MEDI2014ImageBase im : ims) {
+			try {
+				imageToARFF(out, im, loc, normalizeLevel1, normalizeFinal, sparse, wikiIndex, vector);
+			} catch (Exception e) {
+				// thrown so that the caller can clean up, this may run in a thread of a pool
+				throw new Exception("Could not convert Wikipedia image " + im.getImageFilename(), e);
+			}
+			wikiIndex++;
+		}
+	}
+
+	/*
+	 * Appends the contents of a shard file to the given channel and deletes the shard.
+	 */
+	private static void appendShard(WritableByteChannel channel, File shard) throws Exception {
+		FileChannel in = new FileInputStream(shard).getChannel();
+		try {
+			long position = 0;
+			long size = in.size();
+			while (position < size) {
+				position += in.transferTo(position, size - position, channel);
+			}
+		} finally {
+			in.close();
+		}
+		shard.delete();
 	}
 
 	public String generateArffHeader() throws Exception {
+		totalLength = 0;
 		// generate the header of the arff file
 		StringBuilder sb = new StringBuilder();
 		sb.append("% Created by MakeARFFs.java\n");
@@ -100,12 +258,11 @@ public class MakeRelevanceDataset {
 		// sb.append("@ATTRIBUTE longitude\tNUMERIC\n");
 
 		// used to get the length of each feature type
-		ArrayList<HashMap<Long, double[]>> features = dataStore.getLocationList().get(0).getFeatures();
+		MEDI2014Location firstLocation = dataStore.getLocationList().get(0);
 		int counter = 0;
 		for (String featureType : featureTypes) {
 			// get the length of this feature type
-			HashMap<Long, double[]> feature = features.get(counter);
-			int featureLength = feature.values().iterator().next().length;
+			int featureLength = firstLocation.getFeatureMatrix(counter).getDimension();
 			totalLength += featureLength;
 			for (int i = 0; i < featureLength; i++) {
 				sb.append("@ATTRIBUTE " + featureType + "_" + i + "\tNUMERIC\n");
@@ -118,104 +275,234 @@ public class MakeRelevanceDataset {
 		return sb.toString();
 	}
 
-	/*
-	 * Formats all visual attributes of one image to a ARFF-formatted string.
+	/**
+	 * Creates the attributes of the dataset, with the same names, types and order as the header generated by
+	 * {@link #generateArffHeader()}.
+	 * 
+	 * @return
+	 * @throws Exception
 	 */
-	private String imageToARFF(MEDI2014ImageBase im, MEDI2014Location loc, String[] individualNorms,
-			String level1Norm, String finalNorm, boolean sparse, int wikiIndex) throws Exception {
-		StringBuilder sb = new StringBuilder();
+	public ArrayList<Attribute> createAttributes() throws Exception {
+		totalLength = 0;
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("imageId"));
+		ArrayList<String> locationIds = new ArrayList<String>();
+		for (MEDI2014Location loc : dataStore.getLocationList()) {
+			locationIds.add(String.valueOf(loc.getQueryId()));
+		}
+		attributes.add(new Attribute("locationId", locationIds));
+		attributes.add(new Attribute("flickrRank"));
 
-		int flickrRank = 0;
-		if (im.getId() == -1) {// wikipedia image
-			flickrRank = 0; // flickr rank is set to 0
-		} else {
-			flickrRank = ((MEDI2014Image) im).getRank();
+		// used to get the length of each feature type
+		MEDI2014Location firstLocation = dataStore.getLocationList().get(0);
+		int counter = 0;
+		for (String featureType : featureTypes) {
+			int featureLength = firstLocation.getFeatureMatrix(counter).getDimension();
+			totalLength += featureLength;
+			for (int i = 0; i < featureLength; i++) {
+				attributes.add(new Attribute(featureType + "_" + i));
+			}
+			counter++;
 		}
 
-		int numDefaultFeatures = 3;
+		attributes.add(new Attribute("relevance", Arrays.asList("0", "1")));
+		return attributes;
+	}
 
-		if (!sparse) {
-			sb.append(String.format("%d,%d,%d,", im.getId(), loc.getQueryId(), flickrRank));
-			// arffLine += String.format("%5.5f,%5.5f,", im.getLatitude(), im.getLongitude());
+	/**
+	 * Builds the dataset in memory directly from the feature vectors of the loaded collection, i.e. the same
+	 * instances that {@link #writeFile} writes as ARFF, without the text round trip. Wikipedia images are
+	 * included if they have been loaded. The class index is not set.
+	 * 
+	 * @param individualNorms
+	 * @param level1Norm
+	 * @param finalNorm
+	 * @param sparse
+	 *            Whether to create SparseInstance objects instead of DenseInstance objects
+	 * @return
+	 * @throws Exception
+	 */
+	public Instances createInstances(String[] individualNorms, String level1Norm, String finalNorm,
+			boolean sparse) throws Exception {
+		ArrayList<Attribute> attributes = createAttributes();
+		ArrayList<MEDI2014Location> locs = dataStore.getLocationList();
+		int numInstances = 0;
+		for (MEDI2014Location loc : locs) {
+			numInstances += loc.getImageList().size() + loc.getImageListWiki().size();
+		}
+		Instances instances = new Instances("matches", attributes, numInstances);
+		Attribute relevance = attributes.get(attributes.size() - 1);
+		createNormalizationPlan(individualNorms);
+		double[] vector = new double[totalLength];
+		for (int locIndex = 0; locIndex < locs.size(); locIndex++) {
+			MEDI2014Location loc = locs.get(locIndex);
+			System.out.println(loc.getLocationName());
+			for (MEDI2014ImageBase im : loc.getImageList()) {
+				// the wikiIndex parameter is not used in this case
+				instances.add(imageToInstance(im, loc, locIndex, relevance, level1Norm, finalNorm, sparse, 0,
+						vector));
+			}
+			int wikiIndex = 0;
+			for (MEDI2014ImageBase im : loc.getImageListWiki()) {
+				instances.add(imageToInstance(im, loc, locIndex, relevance, level1Norm, finalNorm, sparse,
+						wikiIndex, vector));
+				wikiIndex++;
+			}
+		}
+		return instances;
+	}
+
+	/*
+	 * Converts all visual attributes of one image to a weka Instance.
+	 */
+	private Instance imageToInstance(MEDI2014ImageBase im, MEDI2014Location loc, int locIndex,
+			Attribute relevance, String level1Norm, String finalNorm, boolean sparse, int wikiIndex,
+			double[] vector) throws Exception {
+		imageToVector(im, loc, level1Norm, finalNorm, wikiIndex, vector);
+		double[] values = new double[numDefaultFeatures + totalLength + 1];
+		values[0] = im.getId();
+		// nominal values are label indices and the location labels are in collection order
+		values[1] = locIndex;
+		values[2] = getFlickrRank(im);
+		System.arraycopy(vector, 0, values, numDefaultFeatures, totalLength);
+		String relevanceLabel = loc.getRelevance(im);
+		if (relevanceLabel.equals("?")) {
+			values[values.length - 1] = Utils.missingValue();
+		} else {
+			values[values.length - 1] = relevance.indexOfValue(relevanceLabel);
+		}
+		if (sparse) {
+			return new SparseInstance(1.0, values);
 		} else {
-			sb.append(String.format("{0 %d,1 %d,2 %d,", im.getId(), loc.getQueryId(), flickrRank)); // first
-																									// row is
-																									// class
-																									// label
+			return new DenseInstance(1.0, values);
 		}
+	}
 
-		ArrayList<Double> allFeaturesToNormalize = new ArrayList<Double>();
-		ArrayList<Double> allOtherFeatures = new ArrayList<Double>();
+	private int getFlickrRank(MEDI2014ImageBase im) {
+		if (im.getId() == -1) {// wikipedia image
+			return 0; // flickr rank is set to 0
+		} else {
+			return ((MEDI2014Image) im).getRank();
+		}
+	}
 
-		int featureIndex = 0;
-		for (String featureType : featureTypes) {
-			double[] feature;
-			if (im.getId() == -1) { // a wiki image
-				feature = loc.getFeaturesWiki().get(featureIndex).get(wikiIndex);
-			} else {
-				feature = loc.getFeatureVectors(im.getId())[featureIndex];
+	/*
+	 * Computes once for all images where the vector of each feature type goes in the concatenated vector:
+	 * feature types that are not normalized together come first and the ones that are (individualNorms[i]
+	 * is "true") follow, in the given order.
+	 */
+	private void createNormalizationPlan(String[] individualNorms) throws Exception {
+		MEDI2014Location firstLocation = dataStore.getLocationList().get(0);
+		featureLengths = new int[featureTypes.length];
+		featureOffsets = new int[featureTypes.length];
+		boolean[] normalizeTogether = new boolean[featureTypes.length];
+		int offset = 0;
+		for (int i = 0; i < featureTypes.length; i++) {
+			featureLengths[i] = firstLocation.getFeatureMatrix(i).getDimension();
+			normalizeTogether[i] = Boolean.parseBoolean(individualNorms[i]);
+			if (!normalizeTogether[i]) {
+				featureOffsets[i] = offset;
+				offset += featureLengths[i];
 			}
-
-			for (int i = 0; i < feature.length; i++) {
-				if (Boolean.parseBoolean(individualNorms[featureIndex])) {
-					allFeaturesToNormalize.add(feature[i]);
-				} else {
-					allOtherFeatures.add(feature[i]);
-				}
+		}
+		level1Start = offset;
+		for (int i = 0; i < featureTypes.length; i++) {
+			if (normalizeTogether[i]) {
+				featureOffsets[i] = offset;
+				offset += featureLengths[i];
 			}
-			featureIndex++;
 		}
-
-		double[] allfeaturesToNormalizeArray = new double[allFeaturesToNormalize.size()];
-		for (int i = 0; i < allFeaturesToNormalize.size(); i++) {
-			allfeaturesToNormalizeArray[i] = allFeaturesToNormalize.get(i);
+		if (offset != totalLength) {
+			throw new Exception("Expected feature length was :" + totalLength + " but " + offset
+					+ " was found!");
 		}
-		// apply the appropriate normalization on the concatenated feature vector
-		allfeaturesToNormalizeArray = Normalizations.normalize(allfeaturesToNormalizeArray, level1Norm);
+	}
 
-		double[] allOtherFeaturesArray = new double[allOtherFeatures.size()];
-		for (int i = 0; i < allOtherFeatures.size(); i++) {
-			allOtherFeaturesArray[i] = allOtherFeatures.get(i);
+	/*
+	 * Copies the visual features of one image into the given concatenated vector, following the
+	 * normalization plan, and applies the requested normalizations in place.
+	 */
+	private void imageToVector(MEDI2014ImageBase im, MEDI2014Location loc, String level1Norm,
+			String finalNorm, int wikiIndex, double[] vector) throws Exception {
+		Integer row = null;
+		if (im.getId() != -1) {
+			row = loc.getImageIdToArraylistPosition().get(im.getId());
 		}
-
-		double[] allfeaturesArray = ArrayUtils.addAll(allOtherFeaturesArray, allfeaturesToNormalizeArray);
+		for (int i = 0; i < featureTypes.length; i++) {
+			int featureLength;
+			if (im.getId() == -1) { // a wiki image
+				double[] feature = loc.getFeaturesWiki().get(i).get(wikiIndex);
+				featureLength = feature.length;
+				if (featureLength == featureLengths[i]) {
+					System.arraycopy(feature, 0, vector, featureOffsets[i], featureLength);
+				}
+			} else {
+				FeatureMatrix matrix = loc.getFeatureMatrix(i);
+				if (row == null || !matrix.hasRow(row)) {
+					throw new Exception("Feature vector of image: " + im.getId() + " from location: "
+							+ loc.getLocationName() + " not found!");
+				}
+				featureLength = matrix.getDimension();
+				if (featureLength == featureLengths[i]) {
+					matrix.getRow(row, vector, featureOffsets[i]);
+				}
+			}
+			if (featureLength != featureLengths[i]) {
+				throw new Exception("Something went wrong with image: " + im.getId() + " from location: "
+						+ loc.getLocationName() + "\nExpected length of " + featureTypes[i] + " was :"
+						+ featureLengths[i] + " but " + featureLength + " was found!");
+			}
+		}
+		// apply the appropriate normalization on the concatenated feature vector
+		Normalizations.normalize(vector, level1Start, totalLength, level1Norm);
 		// apply the appropriate normalization on the final feature vector
-		allfeaturesArray = Normalizations.normalize(allfeaturesArray, finalNorm);
-
-		if (allfeaturesArray.length != totalLength) {
-			throw new Exception("Something went wrong with image: " + im.getId() + " from location: "
-					+ loc.getLocationName() + "\nExpected feature length was :" + totalLength + " but "
-					+ allfeaturesArray.length + " was found!\nVector: " + Arrays.toString(allfeaturesArray));
+		Normalizations.normalize(vector, 0, totalLength, finalNorm);
+	}
 
-		}
+	/*
+	 * Writes all visual attributes of one image as an ARFF line.
+	 */
+	private void imageToARFF(TextChannelWriter out, MEDI2014ImageBase im, MEDI2014Location loc,
+			String level1Norm, String finalNorm, boolean sparse, int wikiIndex, double[] vector)
+			throws Exception {
+		imageToVector(im, loc, level1Norm, finalNorm, wikiIndex, vector);
 
 		if (!sparse) {
-			for (int i = 0; i < allfeaturesArray.length; i++) {
-				sb.append(allfeaturesArray[i] + ",");
+			out.writeLong(im.getId());
+			out.write(',');
+			out.writeLong(loc.getQueryId());
+			out.write(',');
+			out.writeLong(getFlickrRank(im));
+			out.write(',');
+			for (int i = 0; i < totalLength; i++) {
+				out.writeDouble(vector[i]);
+				out.write(',');
 			}
-
 			// finally append relevance info!
-			sb.append(loc.getRelevance(im) + "\n");
-			/*
-			 * long id; //Flickr id of photo (unique) float latitude; int license; //Creative Commons license
-			 * type float longitude; int nbComments; //number of comments int rank; //rank in list retrieved
-			 * from Flickr String tags; String title; String url_b; String username; int views; //number of
-			 * times the photo has been displayed on Flickr //Fields containing given descriptors
-			 * MEDIVisualAttributes visAttr; //Other fields String location; //name of landmark/location etc.
-			 * int relevance; //ground truth relevance (1=relevant; 0=irrelevant; -1=unknown) int gtClusterId;
-			 * //diversity: ground truth cluster number or -1 if irrelevant (or of unknown relevance) String
-			 * imageFilename; //JPEG
-			 */
+			out.write(loc.getRelevance(im));
+			out.write('\n');
 		} else {
-			for (int i = 0; i < allfeaturesArray.length; i++) {
-				if (allfeaturesArray[i] != 0) {
-					sb.append((i + numDefaultFeatures) + " " + allfeaturesArray[i] + ",");
+			out.write("{0 ");
+			out.writeLong(im.getId());
+			out.write(",1 ");
+			out.writeLong(loc.getQueryId());
+			out.write(",2 ");
+			out.writeLong(getFlickrRank(im));
+			out.write(',');
+			for (int i = 0; i < totalLength; i++) {
+				if (vector[i] != 0) {
+					out.writeLong(i + numDefaultFeatures);
+					out.write(' ');
+					out.writeDouble(vector[i]);
+					out.write(',');
 				}
 			}
 			// finally append relevance info!
-			sb.append((allfeaturesArray.length + numDefaultFeatures) + " " + loc.getRelevance(im) + "}\n");
+			out.writeLong(totalLength + numDefaultFeatures);
+			out.write(' ');
+			out.write(loc.getRelevance(im));
+			out.write("}\n");
 		}
-		return sb.toString();
 	}
 
 	/**
@@ -228,7 +515,10 @@ public class MakeRelevanceDataset {
 	 *            [4] the type of normalization to apply on the overall vector, e.g. "l2" or "no" <br>
 	 *            [5] whether to include Wikipedia image vectors <br>
 	 *            [6] whether to write the dataset in sparse format<br>
-	 *            [7] the filename extension (typically "dev" or "test")
+	 *            [7] the filename extension (typically "dev" or "test")<br>
+	 *            [8] number of locations that are converted concurrently (optional, default is the number of
+	 *            available processors)<br>
+	 *            [9] whether to gzip the dataset, written as .arff.gz (optional, default false)
 	 * 
 	 * @throws Exception
 	 */
@@ -244,6 +534,11 @@ public class MakeRelevanceDataset {
 		boolean includeWiki = Boolean.parseBoolean(args[5]);
 		boolean writeSparse = Boolean.parseBoolean(args[6]);
 		String datasetExtension = args[7];
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 8) {
+			numThreads = Integer.parseInt(args[8]);
+		}
+		boolean compress = args.length > 9 && Boolean.parseBoolean(args[9]);
 
 		MEDI2014Collection dataStoreTrain = new MEDI2014Collection(collectionPath);
 		dataStoreTrain.loadAll(includeWiki, featureTypes, individualNorms);
@@ -253,7 +548,10 @@ public class MakeRelevanceDataset {
 		String arffFileName = Arrays.toString(featureTypes) + "-" + Arrays.toString(individualNorms) + "-"
 				+ level1Norm + "-" + finalNorm;
 		arffFileName += "-" + datasetExtension + ".arff";
-		marf.writeFile(arffFileName, individualNorms, level1Norm, finalNorm, writeSparse);
+		if (compress) {
+			arffFileName += ".gz";
+		}
+		marf.writeFile(arffFileName, individualNorms, level1Norm, finalNorm, writeSparse, numThreads);
 
 	}
 }
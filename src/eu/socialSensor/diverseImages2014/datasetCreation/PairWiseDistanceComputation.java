@@ -5,22 +5,45 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import eu.socialSensor.diverseImages2014.MEDI2014Collection;
 import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.utils.DistanceFunction;
 import eu.socialSensor.diverseImages2014.utils.Distances;
+import eu.socialSensor.diverseImages2014.utils.FeatureMatrix;
+import eu.socialSensor.diverseImages2014.utils.PairwiseDistanceMatrix;
 
 /**
+ * Computes all pairwise distances between the images of each location for a set of features and writes them
+ * in the distances folder of the collection. The computation is parallelized with a fork-join pool over
+ * locations, features and blocks of rows of each location's distance matrix.
  * 
  * @author Eleftherios Spyromitros-Xioufis
  *
  */
 public class PairWiseDistanceComputation {
 
+	/** matrix rows are split into blocks of at most this many rows when computing in parallel */
+	public static final int rowBlockSize = 32;
+
+	/**
+	 * @param args
+	 *            [0] collection path<br>
+	 *            [1] comma separated feature types<br>
+	 *            [2] comma separated feature normalizations<br>
+	 *            [3] comma separated distance functions<br>
+	 *            [4] whether to create random distances<br>
+	 *            [5] ranges of the random distances, e.g. "0_0.5_0.5_1"<br>
+	 *            [6] number of threads (optional, default: number of available processors)<br>
+	 *            [7] whether to write binary instead of text distance files (optional, default false)
+	 * @throws Exception
+	 */
 	public static void main(String args[]) throws Exception {
 		// parse input arguments
 		String collectionPath = args[0];
@@ -37,93 +60,295 @@ public class PairWiseDistanceComputation {
 				ranges[i] = Double.parseDouble(rangesString.split("_")[i]);
 			}
 		}
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 6) {
+			numThreads = Integer.parseInt(args[6]);
+		}
+		boolean binary = args.length > 7 && Boolean.parseBoolean(args[7]);
 
 		// load the collection
 		MEDI2014Collection collection = new MEDI2014Collection(collectionPath);
 		boolean loadWiki = false; // features for the Wikipedia images will probably not be needed
 		if (!random) {
-			collection.loadAll(loadWiki, features, norms);
+			collection.loadAll(Integer.MAX_VALUE, loadWiki, features, norms, numThreads);
 		} else {
-			collection.loadAll(loadWiki, new String[0], new String[0]);
+			collection.loadAll(Integer.MAX_VALUE, loadWiki, new String[0], new String[0], numThreads);
 		}
 
 		ArrayList<MEDI2014Location> locations = collection.getLocationList();
-		// for each location
+		if (!random) {
+			computeAllPairwiseDistances(collectionPath, locations, features, norms, dfuncs, numThreads,
+					binary);
+			return;
+		}
+
+		// random distances are cheap and are generated serially so that they are reproducible
 		for (MEDI2014Location location : locations) {
-			// generate all distinct image pairs for this location
-			HashSet<HashSet<Long>> pairs = generateAllDistinctPairs(location.getAllImageIds());
-			// compute distance between each pair for each type of feature
+			long[] ids = location.getAllImageIds();
 			for (int i = 0; i < features.length; i++) {
-				String featureType;
-				if (!random) {
-					featureType = features[i] + "-" + norms[i] + "-" + dfuncs[i];
-				} else {
-					featureType = "random" + "_" + rangesString + "-" + norms[i] + "-" + dfuncs[i];
-				}
-				// create a file where all pairwise distances for this location and this feature will be
-				// written
-				BufferedWriter out = new BufferedWriter(new FileWriter(new File(collectionPath
-						+ "/distances/" + featureType + "_" + +location.getQueryId() + ".txt")));
-				out.write(featureType + "\n");
-
-				for (HashSet<Long> pair : pairs) {
-					if (pair.size() != 2) {
-						throw new Exception("Pair should have exactly 2 elements!");
-					}
-					double distance;
-
-					long[] ids = new long[2];
-					int index = 0;
-					for (long id : pair) {
-						ids[index] = id;
-						index++;
-					}
-
-					index = 0;
-					if (!random) {
-						double[][] vecs = new double[2][];
-						for (long id : pair) {
-							vecs[index] = location.getFeatureVectors(id)[i];
-							index++;
-						}
-						distance = Distances.computeDistance(vecs[0], vecs[1], dfuncs[i]);
-					} else {
+				PairwiseDistanceMatrix distances = new PairwiseDistanceMatrix(ids);
+				for (int r = 0; r < ids.length; r++) {
+					for (int c = r + 1; c < ids.length; c++) {
+						double distance;
 						// check if the images belong to the same cluster
-						int clusterId1 = location.getClusterId(ids[0]);
-						int clusterId2 = location.getClusterId(ids[1]);
+						int clusterId1 = location.getClusterId(ids[r]);
+						int clusterId2 = location.getClusterId(ids[c]);
 						if (clusterId1 == clusterId2) {
 							distance = ranges[0] + rand.nextDouble() * (ranges[1] - ranges[0]);
 						} else {
 							distance = ranges[2] + rand.nextDouble() * (ranges[3] - ranges[2]);
 						}
+						distances.set(r, c, distance);
 					}
-					out.write(ids[0] + "-" + ids[1] + "," + distance + "\n");
 				}
-				out.close();
+				writePairwiseDistances(collectionPath, "random" + "_" + rangesString, norms[i], dfuncs[i],
+						location.getQueryId(), distances, binary);
 			}
 		}
 	}
 
 	/**
-	 * Returns an ArrayList where each element corresponds to a HashMap that contains all pairwise distances
-	 * for a specific feature for all pairs of the given location.
+	 * Computes the pairwise distances of all locations for all given features using a fork-join pool with
+	 * the given number of threads and writes them in the distances folder of the collection.
+	 * 
+	 * @param collectionPath
+	 * @param locations
+	 *            Locations with the given features loaded
+	 * @param features
+	 * @param norms
+	 * @param dfuncs
+	 * @param numThreads
+	 * @param binary
+	 *            Whether to write binary instead of text distance files
+	 * @throws Exception
+	 */
+	public static void computeAllPairwiseDistances(String collectionPath,
+			ArrayList<MEDI2014Location> locations, String[] features, String[] norms, String[] dfuncs,
+			int numThreads, boolean binary) throws Exception {
+		final ArrayList<LocationFeatureTask> tasks = new ArrayList<LocationFeatureTask>();
+		for (MEDI2014Location location : locations) {
+			for (int i = 0; i < features.length; i++) {
+				tasks.add(new LocationFeatureTask(collectionPath, location, i, features[i], norms[i],
+						dfuncs[i], binary));
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} catch (RuntimeException e) {
+			// unwrap the exceptions thrown by the distance functions or during writing
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the distances of a single location for a single feature and writes them to disk.
+	 */
+	private static class LocationFeatureTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String collectionPath;
+		private final MEDI2014Location location;
+		private final int featureIndex;
+		private final String feature;
+		private final String norm;
+		private final String dfunc;
+		private final boolean binary;
+
+		LocationFeatureTask(String collectionPath, MEDI2014Location location, int featureIndex,
+				String feature, String norm, String dfunc, boolean binary) {
+			this.collectionPath = collectionPath;
+			this.location = location;
+			this.featureIndex = featureIndex;
+			this.feature = feature;
+			this.norm = norm;
+			this.dfunc = dfunc;
+			this.binary = binary;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				long[] ids = location.getAllImageIds();
+				// feature vectors in row order of the matrix
+				FeatureMatrix featureVectors = location.getFeatureMatrix(featureIndex);
+				double[][] vecs = new double[ids.length][];
+				for (int r = 0; r < ids.length; r++) {
+					vecs[r] = featureVectors.getRow(r);
+				}
+				DistanceFunction distanceFunction = Distances.getDistanceFunction(dfunc);
+				// per-vector values (e.g. norms) are computed once for all row blocks
+				double[] values = distanceFunction.prepare(vecs);
+				double[] packed = new double[PairwiseDistanceMatrix.numPairs(ids.length)];
+				new RowBlockTask(vecs, values, distanceFunction, packed, 0, ids.length).invoke();
+				PairwiseDistanceMatrix distances = new PairwiseDistanceMatrix(ids, DoubleBuffer.wrap(packed));
+				writePairwiseDistances(collectionPath, feature, norm, dfunc, location.getQueryId(), distances,
+						binary);
+				System.out.println("Computed " + feature + "-" + norm + "-" + dfunc
+						+ " distances for location " + location.getQueryId());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Computes the distances of rows [rowStart, rowEnd) of a matrix to all subsequent rows, splitting the
+	 * rows in halves until blocks of at most {@link #rowBlockSize} rows remain.
+	 */
+	private static class RowBlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final double[][] vecs;
+		/** see {@link DistanceFunction#prepare(double[][])} */
+		private final double[] values;
+		private final DistanceFunction distanceFunction;
+		/** packed upper-triangular distances, see {@link DistanceFunction#pairwiseDistances} */
+		private final double[] distances;
+		private final int rowStart;
+		private final int rowEnd;
+
+		RowBlockTask(double[][] vecs, double[] values, DistanceFunction distanceFunction, double[] distances,
+				int rowStart, int rowEnd) {
+			this.vecs = vecs;
+			this.values = values;
+			this.distanceFunction = distanceFunction;
+			this.distances = distances;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+		}
+
+		@Override
+		protected void compute() {
+			if (rowEnd - rowStart > rowBlockSize) {
+				int middle = (rowStart + rowEnd) >>> 1;
+				invokeAll(new RowBlockTask(vecs, values, distanceFunction, distances, rowStart, middle),
+						new RowBlockTask(vecs, values, distanceFunction, distances, middle, rowEnd));
+				return;
+			}
+			try {
+				distanceFunction.pairwiseDistances(vecs, values, rowStart, rowEnd, distances);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the distances of a location for a feature either in the text format (one id1-id2,distance line
+	 * per pair) or in the binary format of {@link BinaryDistanceFiles}.
+	 * 
+	 * @param collectionPath
+	 * @param feature
+	 * @param norm
+	 * @param dfunc
+	 * @param locationId
+	 * @param distances
+	 * @param binary
+	 * @throws Exception
+	 */
+	public static void writePairwiseDistances(String collectionPath, String feature, String norm,
+			String dfunc, int locationId, PairwiseDistanceMatrix distances, boolean binary) throws Exception {
+		String featureType = feature + "-" + norm + "-" + dfunc;
+		if (binary) {
+			String fileName = BinaryDistanceFiles.getFileName(collectionPath, featureType, locationId);
+			BinaryDistanceFiles.write(fileName, feature, norm, dfunc, distances, false);
+			return;
+		}
+		// create a file where all pairwise distances for this location and this feature will be written
+		BufferedWriter out = new BufferedWriter(new FileWriter(new File(collectionPath + "/distances/"
+				+ featureType + "_" + locationId + ".txt")));
+		out.write(featureType + "\n");
+		int n = distances.size();
+		for (int r = 0; r < n; r++) {
+			for (int c = r + 1; c < n; c++) {
+				out.write(distances.getImageId(r) + "-" + distances.getImageId(c) + "," + distances.get(r, c)
+						+ "\n");
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Returns an ArrayList where each element corresponds to a PairwiseDistanceMatrix that contains all
+	 * pairwise distances for a specific feature for all pairs of the given location. For each feature, the
+	 * binary (memory-mapped) distance file is used if it exists and is not older than the text file,
+	 * otherwise the text file is parsed. A stale binary file (e.g. after the text distances are recomputed)
+	 * is thus ignored.
 	 * 
 	 * @param collectionPath
 	 * @param features
 	 * @param norms
 	 * @param dfuncs
 	 * @param locationId
+	 * @param imageIds
+	 *            The ids of all images of the location, they define the rows of the returned matrices
 	 * @return
 	 * @throws Exception
 	 */
-	public static ArrayList<HashMap<HashSet<Long>, Double>> readPairwiseDistances(String collectionPath,
-			String[] features, String[] norms, String[] dfuncs, int locationId) throws Exception {
-		ArrayList<HashMap<HashSet<Long>, Double>> pairWiseDistancesAllFeatures = new ArrayList<HashMap<HashSet<Long>, Double>>(
-				features.length);
+	public static ArrayList<PairwiseDistanceMatrix> readPairwiseDistances(String collectionPath,
+			String[] features, String[] norms, String[] dfuncs, int locationId, long[] imageIds)
+			throws Exception {
+		ArrayList<PairwiseDistanceMatrix> pairWiseDistancesAllFeatures;
+		pairWiseDistancesAllFeatures = new ArrayList<PairwiseDistanceMatrix>(features.length);
+		for (int i = 0; i < features.length; i++) {
+			String featureType = features[i] + "-" + norms[i] + "-" + dfuncs[i];
+			String binaryFileName = BinaryDistanceFiles.getFileName(collectionPath, featureType, locationId);
+			File binaryFile = new File(binaryFileName);
+			File textFile = new File(collectionPath + "/distances/" + featureType + "_" + locationId
+					+ ".txt");
+			if (binaryFile.exists()
+					&& (!textFile.exists() || binaryFile.lastModified() >= textFile.lastModified())) {
+				PairwiseDistanceMatrix pairWiseDistancesThisFeature = BinaryDistanceFiles.read(binaryFileName,
+						featureType);
+				// all matrices of a location should share the same row order
+				if (!Arrays.equals(imageIds, pairWiseDistancesThisFeature.getImageIds())) {
+					throw new Exception("Image ids of " + binaryFileName + " do not match the location!");
+				}
+				pairWiseDistancesAllFeatures.add(pairWiseDistancesThisFeature);
+			} else {
+				pairWiseDistancesAllFeatures.addAll(readTextPairwiseDistances(collectionPath,
+						new String[] { features[i] }, new String[] { norms[i] }, new String[] { dfuncs[i] },
+						locationId, imageIds));
+			}
+		}
+		return pairWiseDistancesAllFeatures;
+	}
+
+	/**
+	 * Same as {@link #readPairwiseDistances(String, String[], String[], String[], int, long[])} but always
+	 * parses the text distance files.
+	 * 
+	 * @param collectionPath
+	 * @param features
+	 * @param norms
+	 * @param dfuncs
+	 * @param locationId
+	 * @param imageIds
+	 *            The ids of all images of the location, they define the rows of the returned matrices
+	 * @return
+	 * @throws Exception
+	 */
+	public static ArrayList<PairwiseDistanceMatrix> readTextPairwiseDistances(String collectionPath,
+			String[] features, String[] norms, String[] dfuncs, int locationId, long[] imageIds)
+			throws Exception {
+		ArrayList<PairwiseDistanceMatrix> pairWiseDistancesAllFeatures;
+		pairWiseDistancesAllFeatures = new ArrayList<PairwiseDistanceMatrix>(features.length);
 		String distancesFolder = collectionPath + "/distances/";
 		for (int i = 0; i < features.length; i++) {
-			HashMap<HashSet<Long>, Double> pairWiseDistancesThisFeature = new HashMap<HashSet<Long>, Double>(
-					44850);
+			PairwiseDistanceMatrix pairWiseDistancesThisFeature = new PairwiseDistanceMatrix(imageIds);
 			String featureType = features[i] + "-" + norms[i] + "-" + dfuncs[i];
 			BufferedReader in = new BufferedReader(new FileReader(new File(distancesFolder + featureType
 					+ "_" + locationId + ".txt")));
@@ -132,31 +357,17 @@ public class PairWiseDistanceComputation {
 				throw new Exception("Wrong feature type!");
 			}
 			while ((line = in.readLine()) != null) {
-				String pairString = line.split(",")[0];
-				long id1 = Long.parseLong(pairString.split("-")[0]);
-				long id2 = Long.parseLong(pairString.split("-")[1]);
-				HashSet<Long> pair = new HashSet<Long>(2);
-				pair.add(id1);
-				pair.add(id2);
-				double distance = Double.parseDouble(line.split(",")[1]);
-				pairWiseDistancesThisFeature.put(pair, distance);
+				// each line has the form id1-id2,distance
+				int dashPos = line.indexOf('-');
+				int commaPos = line.indexOf(',', dashPos);
+				long id1 = Long.parseLong(line.substring(0, dashPos));
+				long id2 = Long.parseLong(line.substring(dashPos + 1, commaPos));
+				double distance = Double.parseDouble(line.substring(commaPos + 1));
+				pairWiseDistancesThisFeature.setById(id1, id2, distance);
 			}
 			pairWiseDistancesAllFeatures.add(pairWiseDistancesThisFeature);
 			in.close();
 		}
 		return pairWiseDistancesAllFeatures;
 	}
-
-	public static HashSet<HashSet<Long>> generateAllDistinctPairs(long[] ids) {
-		HashSet<HashSet<Long>> distinctPairs = new HashSet<HashSet<Long>>();
-		for (int i = 0; i < ids.length; i++) {
-			for (int j = i + 1; j < ids.length; j++) {
-				HashSet<Long> pair = new HashSet<Long>();
-				pair.add(ids[i]);
-				pair.add(ids[j]);
-				distinctPairs.add(pair);
-			}
-		}
-		return distinctPairs;
-	}
 }
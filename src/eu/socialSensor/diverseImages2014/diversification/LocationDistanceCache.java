@@ -0,0 +1,196 @@
+package eu.socialSensor.diverseImages2014.diversification;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.datasetCreation.PairWiseDistanceComputation;
+import eu.socialSensor.diverseImages2014.utils.PairwiseDistanceMatrix;
+
+/**
+ * Loads the precomputed pairwise distances of a location from the distances folder of the collection the
+ * first time they are requested and keeps the distances of the most recently used locations in memory, as
+ * long as their total size stays within a memory budget. When the budget is exceeded, the least recently
+ * used locations are evicted and are loaded again if requested later.<br>
+ * Each location is loaded by a single thread even if it is requested concurrently, the other threads wait
+ * for it. The distances of the last requested location are never evicted, so a location larger than the
+ * budget can still be used. Evicted distances remain valid for the threads that already hold them.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class LocationDistanceCache {
+
+	/**
+	 * The distances of a location, possibly still being loaded.
+	 */
+	private static class Entry {
+		private FutureTask<ArrayList<PairwiseDistanceMatrix>> task;
+		/** set when loading completes */
+		private long numBytes;
+		/**
+		 * whether numBytes has been added to the total, only such entries can be evicted. The task is done
+		 * before this is set, so it cannot be used to tell whether the entry has been accounted.
+		 */
+		private boolean accounted;
+	}
+
+	private String collectionPath;
+
+	private ArrayList<MEDI2014Location> locations;
+
+	private String[] features;
+
+	private String[] norms;
+
+	private String[] dFuncs;
+
+	private double[] fusionWeights;
+
+	private long memoryBudget;
+
+	/** the entries of the cached locations, keyed by location index, in least recently used order */
+	private LinkedHashMap<Integer, Entry> entries;
+
+	/** the total size of the loaded entries */
+	private long numBytes;
+
+	private int numLoads;
+
+	/**
+	 * @param collectionPath
+	 * @param locations
+	 * @param features
+	 * @param norms
+	 * @param dFuncs
+	 * @param fusionWeights
+	 *            If not null, the distances of the different features of a location are fused into a single
+	 *            matrix with the weighted average of {@link PairwiseDistanceMatrix#weightedAverage} when
+	 *            loaded, using these weights
+	 * @param memoryBudget
+	 *            The maximum number of bytes of distances kept in memory
+	 */
+	public LocationDistanceCache(String collectionPath, ArrayList<MEDI2014Location> locations,
+			String[] features, String[] norms, String[] dFuncs, double[] fusionWeights, long memoryBudget) {
+		this.collectionPath = collectionPath;
+		this.locations = locations;
+		this.features = features;
+		this.norms = norms;
+		this.dFuncs = dFuncs;
+		this.fusionWeights = fusionWeights;
+		this.memoryBudget = memoryBudget;
+		entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the distances of the location at the given index of the location list, one matrix per feature
+	 * or a single fused matrix, loading them if needed.
+	 *
+	 * @param locationIndex
+	 * @return
+	 * @throws Exception
+	 */
+	public ArrayList<PairwiseDistanceMatrix> get(final int locationIndex) throws Exception {
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(locationIndex);
+			if (entry == null) {
+				entry = new Entry();
+				entry.task = new FutureTask<ArrayList<PairwiseDistanceMatrix>>(
+						new Callable<ArrayList<PairwiseDistanceMatrix>>() {
+							@Override
+							public ArrayList<PairwiseDistanceMatrix> call() throws Exception {
+								return load(locations.get(locationIndex));
+							}
+						});
+				entries.put(locationIndex, entry);
+				load = true;
+			}
+		}
+		if (load) {
+			entry.task.run();
+		}
+
+		ArrayList<PairwiseDistanceMatrix> distances;
+		try {
+			distances = entry.task.get();
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				// a failed load is not cached
+				if (entries.get(locationIndex) == entry) {
+					entries.remove(locationIndex);
+				}
+			}
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+
+		if (load) {
+			synchronized (this) {
+				for (PairwiseDistanceMatrix matrix : distances) {
+					entry.numBytes += matrix.getNumBytes();
+				}
+				numBytes += entry.numBytes;
+				entry.accounted = true;
+				numLoads++;
+				evict(entry);
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * Evicts the least recently used loaded and accounted entries, except the given one, until the budget is
+	 * met.
+	 */
+	private void evict(Entry keep) {
+		Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+		while (numBytes > memoryBudget && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if (entry == keep || !entry.accounted) {
+				continue;
+			}
+			numBytes -= entry.numBytes;
+			iterator.remove();
+		}
+	}
+
+	private ArrayList<PairwiseDistanceMatrix> load(MEDI2014Location location) throws Exception {
+		int locationId = location.getQueryId();
+		System.out.println("Loading distances for location " + locationId);
+		ArrayList<PairwiseDistanceMatrix> distances = PairWiseDistanceComputation.readPairwiseDistances(
+				collectionPath, features, norms, dFuncs, locationId, location.getAllImageIds());
+		if (fusionWeights != null && distances.size() > 1) {
+			PairwiseDistanceMatrix fused = PairwiseDistanceMatrix.weightedAverage(distances, fusionWeights);
+			distances = new ArrayList<PairwiseDistanceMatrix>(1);
+			distances.add(fused);
+		}
+		return distances;
+	}
+
+	/**
+	 * Returns the total size of the distances currently kept in memory.
+	 *
+	 * @return
+	 */
+	public synchronized long getNumBytes() {
+		return numBytes;
+	}
+
+	/**
+	 * Returns the number of times that the distances of a location have been loaded, including reloads after
+	 * eviction.
+	 *
+	 * @return
+	 */
+	public synchronized int getNumLoads() {
+		return numLoads;
+	}
+}
@@ -0,0 +1,146 @@
+package eu.socialSensor.diverseImages2014.diversification;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.utils.DistanceFunction;
+import eu.socialSensor.diverseImages2014.utils.Distances;
+import eu.socialSensor.diverseImages2014.utils.FeatureMatrix;
+import eu.socialSensor.diverseImages2014.utils.LongIntHashMap;
+
+/**
+ * Computes the combined distances between the images of a single location directly from the location's
+ * feature vectors, as an alternative to reading precomputed distance files. Only the pairs that are actually
+ * requested are computed, i.e. the pairs of top-k candidates and selected images visited by ReDiv, and
+ * computed distances are memoized in a bounded cache.<br>
+ * The cache is direct-mapped: each pair is stored in a single slot determined by its hash and replaces any
+ * other pair stored there, so its size never exceeds the given capacity. Slots hold immutable entries, so
+ * the distances can be requested concurrently.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class OnTheFlyDistances {
+
+	/** the default number of slots of the cache of each location */
+	public static int defaultCacheCapacity = 1 << 14;
+
+	/**
+	 * A memoized distance.
+	 */
+	private static class Entry {
+		private final long pair;
+		private final double distance;
+
+		Entry(long pair, double distance) {
+			this.pair = pair;
+			this.distance = distance;
+		}
+	}
+
+	private int numImages;
+
+	/** maps an image id to its row in the feature matrices */
+	private LongIntHashMap idToIndex;
+
+	private FeatureMatrix[] featureMatrices;
+
+	private DistanceFunction[] distanceFunctions;
+
+	/** the values of the rows of each feature matrix computed by DistanceFunction.prepare, e.g. the norms */
+	private double[][] values;
+
+	private double[] featureWeights;
+
+	private double sumOfFeatureWeights;
+
+	private AtomicReferenceArray<Entry> cache;
+
+	private int mask;
+
+	/**
+	 * @param location
+	 *            A location with the features loaded, in the same order as the distance functions
+	 * @param dFuncs
+	 *            The distance function of each feature
+	 * @param featureWeights
+	 *            The weight of each feature in the combined distance
+	 * @param cacheCapacity
+	 *            Maximum number of slots of the cache. It is reduced to the number of pairs of images of the
+	 *            location if smaller and rounded up to a power of 2.
+	 * @throws Exception
+	 */
+	public OnTheFlyDistances(MEDI2014Location location, String[] dFuncs, double[] featureWeights,
+			int cacheCapacity) throws Exception {
+		long[] imageIds = location.getAllImageIds();
+		numImages = imageIds.length;
+		idToIndex = new LongIntHashMap(numImages);
+		for (int i = 0; i < numImages; i++) {
+			idToIndex.put(imageIds[i], i);
+		}
+		featureMatrices = new FeatureMatrix[dFuncs.length];
+		distanceFunctions = new DistanceFunction[dFuncs.length];
+		values = new double[dFuncs.length][];
+		for (int f = 0; f < dFuncs.length; f++) {
+			featureMatrices[f] = location.getFeatureMatrix(f);
+			distanceFunctions[f] = Distances.getDistanceFunction(dFuncs[f]);
+			values[f] = distanceFunctions[f].prepare(featureMatrices[f]);
+		}
+		this.featureWeights = featureWeights;
+		sumOfFeatureWeights = 0;
+		for (double featureWeight : featureWeights) {
+			sumOfFeatureWeights += featureWeight;
+		}
+		long numPairs = (long) numImages * (numImages - 1) / 2;
+		int capacity = Integer.highestOneBit((int) Math.max(1, Math.min(cacheCapacity, numPairs) - 1)) << 1;
+		cache = new AtomicReferenceArray<Entry>(capacity);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Returns the row index of the given image id or -1 if the image does not belong to the location.
+	 *
+	 * @param imageId
+	 * @return
+	 */
+	public int indexOf(long imageId) {
+		return idToIndex.get(imageId);
+	}
+
+	/**
+	 * Returns the weighted average of the distances of all features between the images at rows index1 and
+	 * index2.
+	 *
+	 * @param index1
+	 * @param index2
+	 * @return
+	 * @throws Exception
+	 */
+	public double get(int index1, int index2) throws Exception {
+		if (index1 == index2) {
+			return 0;
+		}
+		long pair = index1 < index2 ? (long) index1 * numImages + index2 : (long) index2 * numImages + index1;
+		long h = pair * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		Entry entry = cache.get(slot);
+		if (entry != null && entry.pair == pair) {
+			return entry.distance;
+		}
+		double distance = compute(index1, index2);
+		cache.set(slot, new Entry(pair, distance));
+		return distance;
+	}
+
+	private double compute(int index1, int index2) throws Exception {
+		double combinedDistance = 0;
+		for (int f = 0; f < featureMatrices.length; f++) {
+			FeatureMatrix matrix = featureMatrices[f];
+			if (!matrix.hasRow(index1) || !matrix.hasRow(index2)) {
+				throw new Exception("Feature vector not found!");
+			}
+			combinedDistance += featureWeights[f]
+					* distanceFunctions[f].distance(matrix, index1, index2, values[f]);
+		}
+		return combinedDistance / sumOfFeatureWeights;
+	}
+}
@@ -1,28 +1,29 @@
 package eu.socialSensor.diverseImages2014.diversification;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.TreeMap;
 
-import weka.core.Utils;
 import eu.socialSensor.diverseImages2014.MEDI2014Collection;
 import eu.socialSensor.diverseImages2014.MEDI2014Location;
-import eu.socialSensor.diverseImages2014.datasetCreation.PairWiseDistanceComputation;
 import eu.socialSensor.diverseImages2014.eval.MEDI2014Evaluation;
 import eu.socialSensor.diverseImages2014.eval.Medi2014LocationEval;
+import eu.socialSensor.diverseImages2014.eval.SubmissionFileWriter;
 import eu.socialSensor.diverseImages2014.utils.MediImageComparator2014;
+import eu.socialSensor.diverseImages2014.utils.PairwiseDistanceMatrix;
+import eu.socialSensor.diverseImages2014.utils.RankedImageList;
 
 /**
  * The main of this class takes as input a submission file where images for each location are ranked by their
@@ -37,16 +38,39 @@ public class PostProcessRelevanceRanking2014 {
 
 	public static boolean printPerLocationResults = false;
 
+	/**
+	 * If true, the precomputed distances of the different features of each location are fused into a
+	 * single matrix with their weighted average when loaded, so that one matrix is kept per location and
+	 * each combined distance is a single read. The fused matrix is a new array on the heap, so this is off
+	 * by default: binary distance files are memory-mapped and shared through the page cache, and fusing
+	 * them would copy them to the heap. It pays off with text distance files, which are parsed into the
+	 * heap anyway, when several features are combined.
+	 */
+	public static boolean fuseFeatureDistances = false;
+
+	/**
+	 * The maximum number of bytes of precomputed distances kept in memory. The distances of a location are
+	 * loaded when first needed and the least recently used locations are evicted when this budget is
+	 * exceeded (see {@link LocationDistanceCache}).
+	 */
+	public static long distanceMemoryBudget = Long.MAX_VALUE;
+
 	public static enum diversityAggregationMethods {
 		AVG, // diversity = average dissimilarity to the selected images
 		MIN // diversity = dissimilarity to the most similar of the selected images
 	}
 
 	/**
-	 * Each time that the ReDiv re-ranking method is called, this field is updated with all pair-wise
-	 * distances of a specific location.
+	 * Each time that the ReDiv re-ranking method is called, the pair-wise distances of a specific location
+	 * are obtained from this cache, which loads them if needed.
+	 */
+	private LocationDistanceCache distanceCache;
+
+	/**
+	 * The distances of each location computed from the features when requested, used instead of
+	 * {@link #distanceCache} when no precomputed distances are used (null otherwise).
 	 */
-	private ArrayList<ArrayList<HashMap<HashSet<Long>, Double>>> pairWiseDistances;
+	private ArrayList<OnTheFlyDistances> onTheFlyDistances;
 
 	/** because the official measures of Diverse Images 2014 are calculated at this cut-off */
 	// public static final int topK = Evaluation2014.officialCutoff2014;
@@ -67,14 +91,38 @@ public class PostProcessRelevanceRanking2014 {
 		String submissionFileWithScores = args[4];
 		String postProcessingString = args[5];
 		String postProcessingMethod = postProcessingString.split(" ")[0];
+		// optionally, ReDiv computes the distances from the features instead of reading distance files
+		boolean onTheFly = postProcessingMethod.startsWith("rediv") && args.length > 9
+				&& Boolean.parseBoolean(args[9]);
+		// optionally, comma separated weights of the features in the combined distance (default: equal)
+		double[] featureWeights = null;
+		if (postProcessingMethod.startsWith("rediv") && args.length > 10) {
+			String[] featureWeightStrings = args[10].split(",");
+			featureWeights = new double[featureWeightStrings.length];
+			for (int i = 0; i < featureWeights.length; i++) {
+				featureWeights[i] = Double.parseDouble(featureWeightStrings[i]);
+			}
+		}
+		// optionally, the memory budget of the precomputed distances in MB (default: unlimited)
+		if (postProcessingMethod.startsWith("rediv") && args.length > 11) {
+			distanceMemoryBudget = Long.parseLong(args[11]) * 1024 * 1024;
+		}
+		// optionally, whether to fuse the precomputed distances of the features (default: false)
+		if (postProcessingMethod.startsWith("rediv") && args.length > 12) {
+			fuseFeatureDistances = Boolean.parseBoolean(args[12]);
+		}
 
 		// This collection object is needed so that the requested feature vectors are available during
 		// diversity
 		// calculation. Only the requested feature vectors are loaded.
 		MEDI2014Collection dataStore = new MEDI2014Collection(collectionPath);
 		boolean loadWiki = false; // features for the Wikipedia images are not be needed
-		// we do not actually need to load the features because we have pre-computed the distances!
-		dataStore.loadAll(loadWiki, new String[0], new String[0]);
+		if (onTheFly) {
+			dataStore.loadAll(loadWiki, features, norms);
+		} else {
+			// we do not actually need to load the features because we have pre-computed the distances!
+			dataStore.loadAll(loadWiki, new String[0], new String[0]);
+		}
 
 		// This TreeMap objects contains duplicate information with the previous object but is still loaded to
 		// allow
@@ -84,7 +132,8 @@ public class PostProcessRelevanceRanking2014 {
 		TreeMap<Integer, Medi2014LocationEval> locationsForEval = MEDI2014Evaluation.loadGroundTruth(
 				collectionPath, true);
 
-		HashMap<Integer, ArrayList<MediImageComparator2014>> allRelevanceScores = parseSubmissionFile(submissionFileWithScores);
+		HashMap<Integer, RankedImageList> allRelevanceScores = RankedImageList
+				.parseSubmissionFile(submissionFileWithScores);
 
 		String submissionFilePP = "";
 		String suffix = "_" + postProcessingMethod;
@@ -92,25 +141,18 @@ public class PostProcessRelevanceRanking2014 {
 			int numToSkip = Integer.parseInt(postProcessingString.split(" ")[1]);
 			suffix += "_" + numToSkip;
 			submissionFilePP = submissionFileWithScores + suffix + ".txt";
-			BufferedWriter out = new BufferedWriter(new FileWriter(new File(submissionFilePP)));
+			LinkedHashMap<Integer, long[]> rankings = new LinkedHashMap<Integer, long[]>();
 			for (MEDI2014Location location : dataStore.getLocationList()) {
 				int locationId = location.getQueryId();
 				ArrayList<MediImageComparator2014> relevanceOrderedImages = allRelevanceScores
-						.get(locationId);
+						.get(locationId).toImageComparators();
 				ArrayList<MediImageComparator2014> rAndDOrderedImages = PostProcessRelevanceRanking2014
 						.postProcessSkip(relevanceOrderedImages, numToSkip);
-
-				for (int i = 0; i < rAndDOrderedImages.size(); i++) {
-					// out.write(location.getId() + " 0 " + images.get(i).getImageId() + " " + i + " "
-					// + images.get(i).getCombinedScore() + " rel_run\n");
-					out.write(location.getQueryId() + " 0 " + rAndDOrderedImages.get(i).getImageId() + " "
-							+ i + " " + ((double) 1 / (i + 1)) + " rel_run\n");
-				}
-				out.flush();
+				rankings.put(locationId, toImageIds(rAndDOrderedImages));
 			}
-			out.close();
+			writeRankings(submissionFilePP, rankings);
 
-			double[] results = MEDI2014Evaluation.evaluate(submissionFilePP, locationsForEval, false,
+			double[] results = MEDI2014Evaluation.evaluate(rankings, locationsForEval, false,
 					MEDI2014Evaluation.officialCutoff2014);
 			double PatX = results[0];
 			double CRatX = results[1];
@@ -125,27 +167,25 @@ public class PostProcessRelevanceRanking2014 {
 			double avgCRatX = 0;
 			double avgF1atX = 0;
 
+			LinkedHashMap<Integer, long[]> rankings = null;
 			for (int k = 0; k < numRuns; k++) {
-				BufferedWriter out = new BufferedWriter(new FileWriter(new File(submissionFilePP)));
+				rankings = new LinkedHashMap<Integer, long[]>();
 				for (MEDI2014Location location : dataStore.getLocationList()) {
 					int locationId = location.getQueryId();
 					ArrayList<MediImageComparator2014> relevanceOrderedImages = allRelevanceScores
-							.get(locationId);
+							.get(locationId).toImageComparators();
 					ArrayList<MediImageComparator2014> rAndDOrderedImages = PostProcessRelevanceRanking2014
 							.postProcessRandom(relevanceOrderedImages, numToConsider, k);
-					for (int i = 0; i < rAndDOrderedImages.size(); i++) {
-						out.write(locationId + " 0 " + rAndDOrderedImages.get(i).getImageId() + " " + i + " "
-								+ ((double) 1 / (i + 1)) + " rel_run\n");
-					}
-					out.flush();
+					rankings.put(locationId, toImageIds(rAndDOrderedImages));
 				}
-				out.close();
-				double[] results = MEDI2014Evaluation.evaluate(submissionFilePP, locationsForEval, false,
+				double[] results = MEDI2014Evaluation.evaluate(rankings, locationsForEval, false,
 						MEDI2014Evaluation.officialCutoff2014);
 				avgPatX += results[0];
 				avgCRatX += results[1];
 				avgF1atX += results[2];
 			}
+			// the submission file holds the last run
+			writeRankings(submissionFilePP, rankings);
 			System.out.print(numToConsider + " " + avgPatX / numRuns + " " + avgCRatX / numRuns + " "
 					+ avgF1atX / numRuns + "\n");
 
@@ -153,25 +193,18 @@ public class PostProcessRelevanceRanking2014 {
 			int numToConsider = Integer.parseInt(postProcessingString.split(" ")[1]);
 			suffix += numToConsider;
 			submissionFilePP = submissionFileWithScores + suffix + ".txt";
-			BufferedWriter out = new BufferedWriter(new FileWriter(new File(submissionFilePP)));
+			LinkedHashMap<Integer, long[]> rankings = new LinkedHashMap<Integer, long[]>();
 			for (MEDI2014Location location : dataStore.getLocationList()) {
 				int locationId = location.getQueryId();
 				ArrayList<MediImageComparator2014> relevanceOrderedImages = allRelevanceScores
-						.get(locationId);
+						.get(locationId).toImageComparators();
 				ArrayList<MediImageComparator2014> rAndDOrderedImages = PostProcessRelevanceRanking2014
 						.postProcessOracle(relevanceOrderedImages, numToConsider, location);
-
-				for (int i = 0; i < rAndDOrderedImages.size(); i++) {
-					// out.write(location.getId() + " 0 " + images.get(i).getImageId() + " " + i + " "
-					// + images.get(i).getCombinedScore() + " rel_run\n");
-					out.write(location.getQueryId() + " 0 " + rAndDOrderedImages.get(i).getImageId() + " "
-							+ i + " " + ((double) 1 / (i + 1)) + " rel_run\n");
-				}
-				out.flush();
+				rankings.put(locationId, toImageIds(rAndDOrderedImages));
 			}
-			out.close();
+			writeRankings(submissionFilePP, rankings);
 
-			double[] results = MEDI2014Evaluation.evaluate(submissionFilePP, locationsForEval, false,
+			double[] results = MEDI2014Evaluation.evaluate(rankings, locationsForEval, false,
 					MEDI2014Evaluation.officialCutoff2014);
 			double PatX = results[0];
 			double CRatX = results[1];
@@ -179,25 +212,18 @@ public class PostProcessRelevanceRanking2014 {
 			System.out.print(numToConsider + " " + PatX + " " + CRatX + " " + F1atX + "\n");
 		} else if (postProcessingMethod.equals("relonly")) {
 			submissionFilePP = submissionFileWithScores + suffix + ".txt";
-			BufferedWriter out = new BufferedWriter(new FileWriter(new File(submissionFilePP)));
+			LinkedHashMap<Integer, long[]> rankings = new LinkedHashMap<Integer, long[]>();
 			for (MEDI2014Location location : dataStore.getLocationList()) {
 				int locationId = location.getQueryId();
 				ArrayList<MediImageComparator2014> relevanceOrderedImages = allRelevanceScores
-						.get(locationId);
+						.get(locationId).toImageComparators();
 				ArrayList<MediImageComparator2014> rAndDOrderedImages = PostProcessRelevanceRanking2014
 						.postProcessRemoveIrrelevant(relevanceOrderedImages, location);
-
-				for (int i = 0; i < rAndDOrderedImages.size(); i++) {
-					// out.write(location.getId() + " 0 " + images.get(i).getImageId() + " " + i + " "
-					// + images.get(i).getCombinedScore() + " rel_run\n");
-					out.write(location.getQueryId() + " 0 " + rAndDOrderedImages.get(i).getImageId() + " "
-							+ i + " " + ((double) 1 / (i + 1)) + " rel_run\n");
-				}
-				out.flush();
+				rankings.put(locationId, toImageIds(rAndDOrderedImages));
 			}
-			out.close();
+			writeRankings(submissionFilePP, rankings);
 
-			double[] results = MEDI2014Evaluation.evaluate(submissionFilePP, locationsForEval, false,
+			double[] results = MEDI2014Evaluation.evaluate(rankings, locationsForEval, false,
 					MEDI2014Evaluation.officialCutoff2014);
 			double PatX = results[0];
 			double CRatX = results[1];
@@ -233,57 +259,59 @@ public class PostProcessRelevanceRanking2014 {
 			submissionFilePP = submissionFileWithScores + suffix + ".txt";
 
 			PostProcessRelevanceRanking2014 pp = new PostProcessRelevanceRanking2014(diversityMethod,
-					dataStore, features, norms, dfuncs);
+					dataStore, features, norms, dfuncs, featureWeights, onTheFly);
 
 			BufferedWriter outResults = new BufferedWriter(new FileWriter(new File(submissionFilePP.replace(
 					".txt", "-stats.txt"))));
 
+			// optionally, the number of threads used by the grid search
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			if (args.length > 8) {
+				numThreads = Integer.parseInt(args[8]);
+			}
+
+			int[] numToConsiderValues = new int[partialListNumSteps];
+			for (int k = 0; k < partialListNumSteps; k++) {
+				numToConsiderValues[k] = partialListStart + k * partialListStep;
+			}
+			double[] weightValues = new double[weightNumSteps];
+			for (int j = 0; j < weightNumSteps; j++) {
+				double weight = weightStart + j * weightStep;
+				// rounding to 2 decimal places
+				weightValues[j] = new BigDecimal(weight).setScale(2, RoundingMode.HALF_UP).doubleValue();
+			}
+
+			// all (k, w) cells are re-ranked and evaluated in memory concurrently
+			ReDivGridSearch gridSearch = new ReDivGridSearch(pp, dataStore.getLocationList(),
+					allRelevanceScores, locationsForEval, numThreads);
+			ReDivGridSearch.Cell[][] cells = gridSearch.run(numToConsiderValues, weightValues);
+
 			double bestF1atX = 0;
 			int bestK = 0;
 			double bestW = 0;
+			ReDivGridSearch.Cell bestCell = cells[0][0];
 
 			for (int k = 0; k < partialListNumSteps; k++) {
-				int numToConsider = partialListStart + k * partialListStep;
+				int numToConsider = numToConsiderValues[k];
 				double bestWThisK = 0;
 				double bestF1atXThisK = 0;
+				ReDivGridSearch.Cell bestCellThisK = cells[k][0];
 				for (int j = 0; j < weightNumSteps; j++) {
-					double weight = weightStart + j * weightStep;
-					// rounding to 2 decimal places
-					weight = new BigDecimal(weight).setScale(2, RoundingMode.HALF_UP).doubleValue();
-
-					BufferedWriter out = new BufferedWriter(new FileWriter(new File(submissionFilePP)));
-					int locationIndexInCollection = 0;
-					for (MEDI2014Location location : dataStore.getLocationList()) {
-						int locationId = location.getQueryId();
-						ArrayList<MediImageComparator2014> relevanceOrderedImages = allRelevanceScores
-								.get(locationId);
-						ArrayList<Long> reRankedImages = pp.postProcessRD(relevanceOrderedImages, weight,
-								numToConsider);
-
-						for (int i = 0; i < reRankedImages.size(); i++) {
-							out.write(location.getQueryId() + " 0 " + reRankedImages.get(i) + " " + i + " "
-									+ ((double) 1 / (i + 1)) + " rel_run\n");
-						}
-						out.flush();
-						locationIndexInCollection++;
-					}
-					out.close();
-
-					System.out.print(numToConsider + " " + weight + " ");
-					double[] results = MEDI2014Evaluation.evaluate(submissionFilePP, locationsForEval,
-							printPerLocationResults, MEDI2014Evaluation.officialCutoff2014);
+					double weight = weightValues[j];
+					double[] results = cells[k][j].getResults();
 					double PatX = results[0];
 					double CRatX = results[1];
 					double F1atX = results[2];
+					System.out.println(numToConsider + " " + weight + " " + CRatX + " " + PatX + " " + F1atX);
 
 					if (F1atX > bestF1atXThisK) {
 						bestF1atXThisK = F1atX;
 						bestWThisK = weight;
+						bestCellThisK = cells[k][j];
 					}
 
 					outResults.write(numToConsider + " " + weight + " " + PatX + " " + CRatX + " " + F1atX
 							+ "\n");
-					outResults.flush();
 				}
 				System.out.println("Best F1@20: " + bestF1atXThisK + " with params: k=" + numToConsider
 						+ ",w=" + bestWThisK);
@@ -291,8 +319,11 @@ public class PostProcessRelevanceRanking2014 {
 					bestF1atX = bestF1atXThisK;
 					bestK = numToConsider;
 					bestW = bestWThisK;
+					bestCell = bestCellThisK;
 				}
 			}
+			// the submission file holds the re-ranking of the best cell
+			writeRankings(submissionFilePP, bestCell.getRankings());
 			outResults.close();
 			System.out.println("Best F1@20: " + bestF1atX + " with params: k=" + bestK + ",w=" + bestW);
 
@@ -302,44 +333,57 @@ public class PostProcessRelevanceRanking2014 {
 
 	}
 
+	/**
+	 * Returns the ids of the given images as primitive longs, in the same order.
+	 * 
+	 * @param images
+	 * @return
+	 */
+	public static long[] toImageIds(ArrayList<MediImageComparator2014> images) {
+		long[] imageIds = new long[images.size()];
+		for (int i = 0; i < images.size(); i++) {
+			imageIds[i] = Long.parseLong(images.get(i).getImageId());
+		}
+		return imageIds;
+	}
+
+	/**
+	 * Writes the given re-rankings in a submission file. The score of the image at rank i is 1/(i+1).
+	 * 
+	 * @param submissionFile
+	 * @param rankings
+	 *            The ranked image ids of each location, keyed by query id
+	 * @throws IOException
+	 */
+	public static void writeRankings(String submissionFile, Map<Integer, long[]> rankings)
+			throws IOException {
+		SubmissionFileWriter out = new SubmissionFileWriter(submissionFile, "rel_run");
+		try {
+			for (Entry<Integer, long[]> ranking : rankings.entrySet()) {
+				out.writeRanking(ranking.getKey(), ranking.getValue());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
 	/**
 	 * Parses a submission file and returns a HashMap with location ids as keys and an ArrayList of
 	 * MediComparator2014 objects as values. The MediImageComparator2014 objects are ordered by descending
-	 * relevance score in the ArrayList.
-	 * 
+	 * relevance score in the ArrayList. See {@link RankedImageList#parseSubmissionFile(String)} for a more
+	 * compact representation.
+	 *
 	 * @param submissionFileName
 	 * @return
+	 * @throws Exception
 	 */
 	public static HashMap<Integer, ArrayList<MediImageComparator2014>> parseSubmissionFile(
-			String submissionFileName) throws IOException {
+			String submissionFileName) throws Exception {
 		HashMap<Integer, ArrayList<MediImageComparator2014>> allRelevanceScores = new HashMap<Integer, ArrayList<MediImageComparator2014>>();
-		BufferedReader in = new BufferedReader(new FileReader(new File(submissionFileName)));
-		ArrayList<MediImageComparator2014> locationRelevanceScores = new ArrayList<MediImageComparator2014>();
-		int locationId = -1;
-		String line;
-		int imageRankingCounter = 0;
-		while ((line = in.readLine()) != null) {
-			int thisLocationId = Integer.parseInt(line.split(" ")[0]);
-			if (thisLocationId != locationId) { // first or new location
-				if (locationId != -1) { // if not the 1st location
-					// add ArrayList of previous location in the HashMap
-					allRelevanceScores.put(locationId, locationRelevanceScores);
-					locationRelevanceScores = new ArrayList<MediImageComparator2014>(); // empty the ArrayList
-																						// of images
-					imageRankingCounter = 0;
-				}
-				locationId = thisLocationId;// update the locationId
-			}
-			imageRankingCounter++;
-			String imagId = line.split(" ")[2];
-			double relevanceScore = Double.parseDouble(line.split(" ")[4]);
-			MediImageComparator2014 image = new MediImageComparator2014(imagId, locationId, relevanceScore);
-			locationRelevanceScores.add(image);
+		for (Entry<Integer, RankedImageList> location : RankedImageList.parseSubmissionFile(
+				submissionFileName).entrySet()) {
+			allRelevanceScores.put(location.getKey(), location.getValue().toImageComparators());
 		}
-		// add last location in the HashMap
-		allRelevanceScores.put(locationId, locationRelevanceScores);
-
-		in.close();
 		return allRelevanceScores;
 	}
 
@@ -495,6 +539,11 @@ public class PostProcessRelevanceRanking2014 {
 	// private String[] norms;
 	// private String[] dFuncs;
 
+	/** the weight of each feature in the combined distance */
+	private double[] featureWeights;
+
+	private double sumOfFeatureWeights;
+
 	/**
 	 * This is used for creating artificial diversity scores!
 	 */
@@ -502,46 +551,88 @@ public class PostProcessRelevanceRanking2014 {
 
 	private diversityAggregationMethods diversityAggregationMethod;
 
+	/**
+	 * Maps the query id of each location to its index in the collection (and in the distances).
+	 */
+	private HashMap<Integer, Integer> locationIdToIndex;
+
 	public PostProcessRelevanceRanking2014(diversityAggregationMethods diversityMethod,
 			MEDI2014Collection collection, String[] features, String[] norms, String[] dFuncs)
 			throws Exception {
+		this(diversityMethod, collection, features, norms, dFuncs, null, false);
+	}
+
+	/**
+	 * @param diversityMethod
+	 * @param collection
+	 * @param features
+	 * @param norms
+	 * @param dFuncs
+	 * @param featureWeights
+	 *            The weight of each feature in the combined distance, i.e. the weighted average of the
+	 *            distances of all features. If null, all features have the same weight.
+	 * @param onTheFly
+	 *            If true, distances are computed from the features of the collection (which should be loaded
+	 *            in the given order) only for the pairs visited by ReDiv and are memoized in a cache of
+	 *            {@link OnTheFlyDistances#defaultCacheCapacity} distances per location. Otherwise, all
+	 *            pairwise distances of a location are read from the distance files of the collection when
+	 *            first needed, within {@link #distanceMemoryBudget}.
+	 * @throws Exception
+	 */
+	public PostProcessRelevanceRanking2014(diversityAggregationMethods diversityMethod,
+			MEDI2014Collection collection, String[] features, String[] norms, String[] dFuncs,
+			double[] featureWeights, boolean onTheFly) throws Exception {
 		this.diversityAggregationMethod = diversityMethod;
 		this.collection = collection;
 		this.features = features;
 		this.rand = new Random(1);
+		if (featureWeights == null) {
+			featureWeights = new double[features.length];
+			Arrays.fill(featureWeights, 1);
+		}
+		if (featureWeights.length != features.length) {
+			throw new Exception("Wrong number of feature weights!");
+		}
+		this.featureWeights = featureWeights;
+		sumOfFeatureWeights = 0;
+		for (double featureWeight : featureWeights) {
+			if (featureWeight < 0) {
+				throw new Exception("Negative feature weight!");
+			}
+			sumOfFeatureWeights += featureWeight;
+		}
+		if (sumOfFeatureWeights == 0) {
+			throw new Exception("All feature weights are zero!");
+		}
 
 		int numLocations = collection.getLocationList().size();
-		pairWiseDistances = new ArrayList<ArrayList<HashMap<HashSet<Long>, Double>>>(numLocations);
+		if (onTheFly) {
+			onTheFlyDistances = new ArrayList<OnTheFlyDistances>(numLocations);
+		} else {
+			// the distances of each location are loaded when first needed
+			distanceCache = new LocationDistanceCache(collection.getRootDir(), collection.getLocationList(),
+					features, norms, dFuncs, fuseFeatureDistances ? featureWeights : null,
+					distanceMemoryBudget);
+		}
+		locationIdToIndex = new HashMap<Integer, Integer>(numLocations);
 
 		for (int i = 0; i < numLocations; i++) {
-			// load the required distances (and optionally models) for this location
-			// read all pairwise distances for this location
-			int locationId = collection.getLocationList().get(i).getQueryId();
-			System.out.println("Loading distances (and optionally models) for location " + locationId);
-			pairWiseDistances.add(PairWiseDistanceComputation.readPairwiseDistances(collection.getRootDir(),
-					features, norms, dFuncs, locationId));
+			MEDI2014Location location = collection.getLocationList().get(i);
+			locationIdToIndex.put(location.getQueryId(), i);
+			if (onTheFly) {
+				onTheFlyDistances.add(new OnTheFlyDistances(location, dFuncs, featureWeights,
+						OnTheFlyDistances.defaultCacheCapacity));
+			}
 		}
 	}
 
-	private double aggregateDivesityScores(ArrayList<Double> diversityScores) {
-		double distance = 0;
-		if (diversityAggregationMethod == diversityAggregationMethods.AVG) {
-			double avgDiversity = 0;
-			for (double diversityScore : diversityScores) {
-				avgDiversity += diversityScore;
-			}
-			avgDiversity /= diversityScores.size();
-			distance = avgDiversity;
-		} else if (diversityAggregationMethod == diversityAggregationMethods.MIN) {
-			double minDiversity = Double.MAX_VALUE;
-			for (double diversityScore : diversityScores) {
-				if (diversityScore < minDiversity) {
-					minDiversity = diversityScore;
-				}
-			}
-			distance = minDiversity;
-		}
-		return distance;
+	/**
+	 * Returns the cache of the precomputed distances, or null if distances are computed on the fly.
+	 * 
+	 * @return
+	 */
+	public LocationDistanceCache getDistanceCache() {
+		return distanceCache;
 	}
 
 	private double calculateCombinedScore(double relevanceScore, double diversityScore, double weight) {
@@ -549,40 +640,34 @@ public class PostProcessRelevanceRanking2014 {
 	}
 
 	/**
-	 * In this method, the diversity score of the candidate image is calculated by aggregating the distances
-	 * of this image from the images already selected. The larger the distance the aggregated distance, the
-	 * higher the diversity.
+	 * Returns the distance between two images of a location, identified by their row index in the
+	 * location's distance matrices. Distances from different modalities are combined with their weighted
+	 * average, unless they have already been fused into a single matrix.
 	 * 
-	 * @param locationIndex
-	 * @param candidateId
-	 * @param selectedSoFarIds
+	 * @param locationDistances
+	 * @param index1
+	 * @param index2
 	 * @return
 	 * @throws Exception
 	 */
-	private double computeDiversity(int locationIndex, long candidateId, HashSet<Long> selectedSoFarIds)
-			throws Exception {
-		ArrayList<Double> combinedDistances = new ArrayList<Double>();
-		for (long selectedId : selectedSoFarIds) {
-			if (selectedId == candidateId) {
-				continue;
+	private double combinedDistance(ArrayList<PairwiseDistanceMatrix> locationDistances, int index1,
+			int index2) throws Exception {
+		if (locationDistances.size() == 1) { // a single feature or fused distances
+			double distance = locationDistances.get(0).get(index1, index2);
+			if (Double.isNaN(distance)) {
+				throw new Exception("Distnace not found!");
 			}
-			HashSet<Long> pair = new HashSet<Long>(2);
-			pair.add(candidateId);
-			pair.add(selectedId);
-			double[] distances = new double[features.length];
-			for (int i = 0; i < features.length; i++) {
-				Double distance = pairWiseDistances.get(locationIndex).get(i).get(pair);
-				if (distance == null) {
-					throw new Exception("Distnace not found!");
-				} else {
-					distances[i] = distance;
-				}
+			return distance;
+		}
+		double combinedDistance = 0;
+		for (int i = 0; i < features.length; i++) {
+			double distance = locationDistances.get(i).get(index1, index2);
+			if (Double.isNaN(distance)) {
+				throw new Exception("Distnace not found!");
 			}
-			// currently, distances from different modalities are averaged
-			double combinedDistance = Utils.mean(distances);
-			combinedDistances.add(combinedDistance);
+			combinedDistance += featureWeights[i] * distance;
 		}
-		return aggregateDivesityScores(combinedDistances);
+		return combinedDistance / sumOfFeatureWeights;
 	}
 
 	/**
@@ -593,6 +678,11 @@ public class PostProcessRelevanceRanking2014 {
 	 * <li>A weight in the [0-1] range that corresponds to the a parameter of the RD method, i.e. the
 	 * importance of relevance in the final RD score</li>
 	 * </ul>
+	 * The diversity score of a candidate image aggregates its distances from the images already selected.
+	 * Instead of recomputing it at each step, a running sum (AVG) or running minimum (MIN) of these
+	 * distances is kept for each candidate and is only updated against the newly selected image, so each of
+	 * the topK steps is linear in the number of candidates.<br>
+	 * The given list is not modified, so this method can be called concurrently.
 	 *
 	 * @param images
 	 * @param weight
@@ -601,6 +691,21 @@ public class PostProcessRelevanceRanking2014 {
 	 */
 	public ArrayList<Long> postProcessRD(ArrayList<MediImageComparator2014> images, double weight,
 			int numMostRelevantToConsider) throws Exception {
+		return postProcessRD(RankedImageList.fromImageComparators(images), weight, numMostRelevantToConsider);
+	}
+
+	/**
+	 * Same as {@link #postProcessRD(ArrayList, double, int)} but takes the relevance-ordered images as a
+	 * {@link RankedImageList}, so that image ids are not parsed again for each call.
+	 *
+	 * @param images
+	 * @param weight
+	 * @param numMostRelevantToConsider
+	 * @return
+	 * @throws Exception
+	 */
+	public ArrayList<Long> postProcessRD(RankedImageList images, double weight, int numMostRelevantToConsider)
+			throws Exception {
 		if (numMostRelevantToConsider < topK) {
 			throw new Exception("The number of most relevant images to be considered should be larger than "
 					+ topK);
@@ -609,53 +714,95 @@ public class PostProcessRelevanceRanking2014 {
 			throw new Exception("The size of the relevance ordered image list should be larger than " + topK);
 		}
 
-		// create a copy of the given ArrayList that contains only the top numMostRelevantToConsider images
+		Integer locationIndex = locationIdToIndex.get(images.getLocationId());
+		if (locationIndex == null) {
+			throw new Exception("No distances loaded for location " + images.getLocationId());
+		}
+		ArrayList<PairwiseDistanceMatrix> locationDistances = null;
+		OnTheFlyDistances locationOnTheFlyDistances = null;
+		if (onTheFlyDistances != null) {
+			locationOnTheFlyDistances = onTheFlyDistances.get(locationIndex);
+		} else {
+			locationDistances = distanceCache.get(locationIndex);
+		}
+
+		// only the top numMostRelevantToConsider images are considered, they are visited in descending
+		// relevance order
 		int size = Math.min(images.size(), numMostRelevantToConsider);
-		ArrayList<MediImageComparator2014> topImages = new ArrayList<MediImageComparator2014>(size);
+		long[] candidateIds = new long[size];
+		int[] candidateIndices = new int[size]; // row indices in the distance matrices
+		double[] relevanceScores = new double[size];
 		for (int i = 0; i < size; i++) {
-			topImages.add(images.get(i));
+			candidateIds[i] = images.getImageId(i);
+			if (locationOnTheFlyDistances != null) {
+				candidateIndices[i] = locationOnTheFlyDistances.indexOf(candidateIds[i]);
+			} else {
+				candidateIndices[i] = locationDistances.get(0).indexOf(candidateIds[i]);
+			}
+			if (candidateIndices[i] < 0) {
+				throw new Exception("Distnace not found!");
+			}
+			relevanceScores[i] = images.getScore(i);
 		}
 
+		// running sum (AVG) or minimum (MIN) of the distances of each candidate from the selected images
+		double[] aggregatedDistances = new double[size];
+		if (diversityAggregationMethod == diversityAggregationMethods.MIN) {
+			Arrays.fill(aggregatedDistances, Double.MAX_VALUE);
+		}
+		boolean[] selected = new boolean[size];
+
 		// create a new list that will hold the R&D re-ranked images
-		ArrayList<Long> rerankedSoFar = new ArrayList<Long>();
-
-		// remove the most relevant image from the unselected images (topImages) list and add it as first to
-		// the
-		// rerankedSoFar list after updating its R&D (combined) score
-		MediImageComparator2014 selectedFirst = topImages.remove(0);
-		// the R&D score of the 1st image is equal to its R score multiplied by w (the diversity score is
-		// still 0)
-		selectedFirst.setCombinedScore(weight * selectedFirst.getRelevanceScore());
-		rerankedSoFar.add(Long.parseLong(selectedFirst.getImageId()));
-
-		// for topK - 1 steps
-		for (int j = 1; j < topK; j++) {
-			// calculate the R&D scores of all unselected images (topImages list)
-			// TO DO: modify the code to store the k top scoring images so that back-tracking is possible
+		ArrayList<Long> rerankedSoFar = new ArrayList<Long>(topK);
+
+		// the most relevant image is selected first
+		int selectedIndex = 0;
+
+		for (int j = 0; j < topK; j++) {
+			// add the last selected image to the rerankedSoFar list
+			selected[selectedIndex] = true;
+			rerankedSoFar.add(candidateIds[selectedIndex]);
+			if (j == topK - 1) {
+				break;
+			}
+
+			// update the diversity aggregates of the unselected images with the newly selected image and
+			// find the unselected image with the highest R&D score
+			int numSelected = j + 1;
 			int maxIndex = -1;
 			double maxCombinedScore = -Double.MAX_VALUE; // minus is very important
-			// in current implementation, images are always visited as they are order in topImages list,
-			// i.e. descending relevance order
-			for (int i = 0; i < topImages.size(); i++) {
-				MediImageComparator2014 candidateImage = topImages.get(i);
-
-				double relevanceScore = candidateImage.getRelevanceScore();
-				double diversityScore = -1000;
-				// double diversityScore = computeDiversity(candidateImage, rerankedSoFar, attributes,
-				// norms[0]);
-				double combinedScore = calculateCombinedScore(relevanceScore, diversityScore, weight);
+			for (int i = 0; i < size; i++) {
+				if (selected[i]) {
+					continue;
+				}
+				double distance;
+				if (locationOnTheFlyDistances != null) {
+					distance = locationOnTheFlyDistances.get(candidateIndices[i],
+							candidateIndices[selectedIndex]);
+				} else {
+					distance = combinedDistance(locationDistances, candidateIndices[i],
+							candidateIndices[selectedIndex]);
+				}
+				double diversityScore;
+				if (diversityAggregationMethod == diversityAggregationMethods.AVG) {
+					// diversity = average dissimilarity to the selected images
+					aggregatedDistances[i] += distance;
+					diversityScore = aggregatedDistances[i] / numSelected;
+				} else {
+					// diversity = dissimilarity to the most similar of the selected images
+					if (distance < aggregatedDistances[i]) {
+						aggregatedDistances[i] = distance;
+					}
+					diversityScore = aggregatedDistances[i];
+				}
+				double combinedScore = calculateCombinedScore(relevanceScores[i], diversityScore, weight);
 
 				if (combinedScore > maxCombinedScore) {
 					maxCombinedScore = combinedScore;
 					maxIndex = i;
 				}
 			}
-
-			// remove the highest scoring image from the unselected images (topImages) list and add it to the
-			// rerankedSoFar list after updating its R&D (combined) score
-			MediImageComparator2014 selected = topImages.remove(maxIndex);
-			selected.setCombinedScore(maxCombinedScore);
-			rerankedSoFar.add(Long.parseLong(selected.getImageId()));
+			selectedIndex = maxIndex;
 		}
 
 		return rerankedSoFar;
@@ -0,0 +1,183 @@
+package eu.socialSensor.diverseImages2014.diversification;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.eval.MEDI2014Evaluation;
+import eu.socialSensor.diverseImages2014.eval.Medi2014LocationEval;
+import eu.socialSensor.diverseImages2014.utils.RankedImageList;
+
+/**
+ * Evaluates the ReDiv post-processing for a grid of (k, w) values, i.e. number of most relevant images to
+ * consider and weight of relevance. Each location is re-ranked for all cells of the grid by a separate task,
+ * so that the distances of a location are only needed while its task runs and are loaded once even if the
+ * distances of all locations do not fit in memory (see {@link LocationDistanceCache}). The cells are then
+ * evaluated concurrently, in memory and without writing any submission file. Results are returned in grid
+ * order, independently of the order in which the tasks complete.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class ReDivGridSearch {
+
+	private PostProcessRelevanceRanking2014 pp;
+
+	private ArrayList<MEDI2014Location> locations;
+
+	private HashMap<Integer, RankedImageList> allRelevanceScores;
+
+	private TreeMap<Integer, Medi2014LocationEval> locationsForEval;
+
+	private int numThreads;
+
+	/**
+	 * The outcome of a single (k, w) cell of the grid.
+	 */
+	public static class Cell {
+		private int numToConsider;
+		private double weight;
+		private LinkedHashMap<Integer, long[]> rankings;
+		private double[] results;
+
+		public int getNumToConsider() {
+			return numToConsider;
+		}
+
+		public double getWeight() {
+			return weight;
+		}
+
+		/**
+		 * Returns the re-ranked image ids of each location, in collection order.
+		 */
+		public LinkedHashMap<Integer, long[]> getRankings() {
+			return rankings;
+		}
+
+		/**
+		 * Returns P@X, CR@X and F1@X at the official cutoff.
+		 */
+		public double[] getResults() {
+			return results;
+		}
+	}
+
+	public ReDivGridSearch(PostProcessRelevanceRanking2014 pp, ArrayList<MEDI2014Location> locations,
+			HashMap<Integer, RankedImageList> allRelevanceScores,
+			TreeMap<Integer, Medi2014LocationEval> locationsForEval, int numThreads) {
+		this.pp = pp;
+		this.locations = locations;
+		this.allRelevanceScores = allRelevanceScores;
+		this.locationsForEval = locationsForEval;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Runs all cells of the grid.
+	 *
+	 * @param numToConsider
+	 *            The k values of the grid
+	 * @param weights
+	 *            The w values of the grid
+	 * @return The cells of the grid, indexed as [k index][w index]
+	 * @throws Exception
+	 */
+	public Cell[][] run(final int[] numToConsider, final double[] weights) throws Exception {
+		// the re-ranking of each location for each cell, indexed as [k index][w index][location index]
+		final long[][][][] rankings = new long[numToConsider.length][weights.length][locations.size()][];
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			ArrayList<Future<Void>> locationFutures = new ArrayList<Future<Void>>();
+			for (int l = 0; l < locations.size(); l++) {
+				locationFutures.add(executor.submit(createLocationTask(l, numToConsider, weights, rankings)));
+			}
+			for (Future<Void> future : locationFutures) {
+				getResult(future);
+			}
+
+			ArrayList<ArrayList<Future<Cell>>> futures = new ArrayList<ArrayList<Future<Cell>>>();
+			for (int k = 0; k < numToConsider.length; k++) {
+				ArrayList<Future<Cell>> futuresThisK = new ArrayList<Future<Cell>>();
+				for (int j = 0; j < weights.length; j++) {
+					futuresThisK.add(executor.submit(createCellTask(numToConsider[k], weights[j],
+							rankings[k][j])));
+				}
+				futures.add(futuresThisK);
+			}
+
+			Cell[][] cells = new Cell[numToConsider.length][weights.length];
+			for (int k = 0; k < numToConsider.length; k++) {
+				for (int j = 0; j < weights.length; j++) {
+					cells[k][j] = getResult(futures.get(k).get(j));
+				}
+			}
+			return cells;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the given task and rethrows the exception that it may have thrown.
+	 */
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private Callable<Void> createLocationTask(final int locationIndex, final int[] numToConsider,
+			final double[] weights, final long[][][][] rankings) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				int locationId = locations.get(locationIndex).getQueryId();
+				RankedImageList relevanceScores = allRelevanceScores.get(locationId);
+				for (int k = 0; k < numToConsider.length; k++) {
+					for (int j = 0; j < weights.length; j++) {
+						ArrayList<Long> reRankedImages = pp.postProcessRD(relevanceScores, weights[j],
+								numToConsider[k]);
+						long[] ranking = new long[reRankedImages.size()];
+						for (int i = 0; i < ranking.length; i++) {
+							ranking[i] = reRankedImages.get(i);
+						}
+						rankings[k][j][locationIndex] = ranking;
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	private Callable<Cell> createCellTask(final int numToConsider, final double weight,
+			final long[][] locationRankings) {
+		return new Callable<Cell>() {
+			@Override
+			public Cell call() throws Exception {
+				Cell cell = new Cell();
+				cell.numToConsider = numToConsider;
+				cell.weight = weight;
+				cell.rankings = new LinkedHashMap<Integer, long[]>();
+				for (int l = 0; l < locations.size(); l++) {
+					cell.rankings.put(locations.get(l).getQueryId(), locationRankings[l]);
+				}
+				cell.results = MEDI2014Evaluation.evaluate(cell.rankings, locationsForEval,
+						PostProcessRelevanceRanking2014.printPerLocationResults,
+						MEDI2014Evaluation.officialCutoff2014);
+				return cell;
+			}
+		};
+	}
+}
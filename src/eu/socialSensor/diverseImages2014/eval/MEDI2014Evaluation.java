@@ -7,6 +7,8 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -26,6 +28,10 @@ public class MEDI2014Evaluation {
 
 	public static final int officialCutoff2014 = 20;
 	public static final int maxPerLocation = 300;
+	/**
+	 * Cut-offs at which the measures are typically reported.
+	 */
+	public static final int[] standardCutoffs = { 5, 10, 20, 30, 40, 50 };
 
 	/**
 	 * This method contains example code to:<br>
@@ -55,8 +61,11 @@ public class MEDI2014Evaluation {
 		for (int i = 0; i < numIterations; i++) {
 			int seed = i; // changing seed at each iteration if the generation method is randomizable
 			String submissionFileDev = submissionsPath + "/submission_test_" + submissionType + ".txt";
-			generateSubmissionFile(submissionFileDev, locationsGT, null, submissionType, seed);
-			evaluate(submissionFileDev, locationsGT, printPerLocationResults, officialCutoff2014);
+			LinkedHashMap<Integer, long[]> rankedLists = generateSubmissionFile(submissionFileDev,
+					locationsGT, null, submissionType, seed);
+			double[] results = evaluate(rankedLists, locationsGT, printPerLocationResults,
+					officialCutoff2014);
+			System.out.println(results[1] + " " + results[0] + " " + results[2]);
 		}
 
 		// generateHtmls(locationsDev, devPath);
@@ -166,12 +175,15 @@ public class MEDI2014Evaluation {
 	 *            Maximum number of results per location.
 	 * @param seed
 	 *            Seed for random number generation (only used for random type).
+	 * @return The ranked image ids written for each location, so that they can be evaluated without
+	 *         parsing the file.
 	 * @throws Exception
 	 */
-	public static void generateSubmissionFile(String filename,
+	public static LinkedHashMap<Integer, long[]> generateSubmissionFile(String filename,
 			TreeMap<Integer, Medi2014LocationEval> locations, MEDI2014Collection collection, String type,
 			int seed) throws Exception {
-		BufferedWriter out = new BufferedWriter(new FileWriter(new File(filename)));
+		LinkedHashMap<Integer, long[]> rankedLists = new LinkedHashMap<Integer, long[]>();
+		SubmissionFileWriter out = new SubmissionFileWriter(filename, type + "_run");
 		int locationIndex = 0;
 		for (Map.Entry<Integer, Medi2014LocationEval> entry : locations.entrySet()) {
 			Medi2014LocationEval locationGT = entry.getValue();
@@ -195,21 +207,25 @@ public class MEDI2014Evaluation {
 			} else {
 				limit = Math.min(bpq.size(), maxPerLocation);
 			}
+			long[] rankedList = new long[limit];
 			for (int j = 0; j < limit; j++) {
 				if (bpq == null) {
-					out.write(qid + " 0 " + results.get(j) + " " + j + " " + (double) (limit - j) / (limit)
-							+ " " + type + "_run\n");
+					rankedList[j] = Long.parseLong(results.get(j));
+					out.write(qid, rankedList[j], j, (double) (limit - j) / (limit));
 				} else {
 					MediImageComparator2014 image = bpq.poll();
 					String imageId = image.getImageId();
 					double relevanceScore = image.getRelevanceScore();
+					rankedList[j] = Long.parseLong(imageId);
 
-					out.write(qid + " 0 " + imageId + " " + j + " " + relevanceScore + " " + type + "_run\n");
+					out.write(qid, rankedList[j], j, relevanceScore);
 				}
 			}
+			rankedLists.put(qid, rankedList);
 			locationIndex++;
 		}
 		out.close();
+		return rankedLists;
 	}
 
 	/**
@@ -229,82 +245,131 @@ public class MEDI2014Evaluation {
 	 */
 	public static double[] evaluate(String submissionFile, TreeMap<Integer, Medi2014LocationEval> locations,
 			boolean printPerLocationResults, int cutoff) throws Exception {
-		double mCRatX = 0;
-		double mPatX = 0;
-		double mF1atX = 0;
+		double[] results = evaluate(parseRankedLists(submissionFile), locations, printPerLocationResults,
+				cutoff);
 
-		int numQueriesSubmitted = 0;
+		System.out.println(results[1] + " " + results[0] + " " + results[2]);
+
+		return results;
+	}
+
+	/**
+	 * Parses the ranked image ids of each location from a submission file.
+	 * 
+	 * @param submissionFile
+	 *            Full path to a submission file in the MediaEval2013/2014 format.
+	 * @return The ranked list of each location, in the order the locations appear in the submission file
+	 * @throws Exception
+	 */
+	public static LinkedHashMap<Integer, long[]> parseRankedLists(String submissionFile) throws Exception {
+		LinkedHashMap<Integer, long[]> rankedLists = new LinkedHashMap<Integer, long[]>();
 
 		BufferedReader in = new BufferedReader(new FileReader(new File(submissionFile)));
 		String line;
-		int prevqid = 1;
-		ArrayList<String> rankedList = new ArrayList<String>();
+		long[] rankedList = new long[maxPerLocation];
+		int listSize = 0;
+		int prevqid = -1;
 		while ((line = in.readLine()) != null) {
-			int qid = Integer.parseInt(line.split(" ")[0]);
-			String photoid = line.split(" ")[2];
-			if (qid != prevqid && rankedList.size() > 0) { // new query
-				// evaluate the previous query
-				if (!locations.containsKey(prevqid)) {
-					throw new Exception("This qid does not exist in the ground truth!");
+			String[] parts = line.split(" ");
+			int qid = Integer.parseInt(parts[0]);
+			if (qid != prevqid) { // new query
+				if (prevqid != -1) {
+					rankedLists.put(prevqid, Arrays.copyOf(rankedList, listSize));
 				}
-				Medi2014LocationEval loc = locations.get(prevqid);
-				if (loc.getNumRelevant() > 0) {
-					numQueriesSubmitted++;
-					loc.caclulateMeasures(rankedList, cutoff);
-					if (printPerLocationResults) {
-						System.out.println(loc.getName() + " " + loc.getCRatX() + " " + loc.getPatX() + " "
-								+ loc.getF1atX());
-					}
-
-					mCRatX += loc.getCRatX();
-					mPatX += loc.getPatX();
-					mF1atX += loc.getF1atX();
-					// System.out.println("Cluster distribution: " +
-					// loc.getClusterDistributionAtX().toString());
-				} else {
-					System.out.println("Skipping location with 0 relevant images: " + loc.getId());
-				}
-				// reinitialize
-				rankedList = new ArrayList<String>();
+				listSize = 0;
 			}
-			// in any case
-			rankedList.add(photoid);
+			if (listSize == rankedList.length) {
+				rankedList = Arrays.copyOf(rankedList, listSize * 2);
+			}
+			rankedList[listSize++] = Long.parseLong(parts[2]);
 			prevqid = qid;
 		}
 		in.close();
-
-		// evaluate the last query
-		if (!locations.containsKey(prevqid)) {
-			throw new Exception("This qid does not exist in the ground truth!");
+		if (prevqid != -1) {
+			rankedLists.put(prevqid, Arrays.copyOf(rankedList, listSize));
 		}
-		Medi2014LocationEval loc = locations.get(prevqid);
-		if (loc.getNumRelevant() > 0) {
-			numQueriesSubmitted++;
+		return rankedLists;
+	}
 
-			loc.caclulateMeasures(rankedList, cutoff);
+	/**
+	 * Evaluates in-memory rankings against the loaded ground truth without writing or parsing a submission
+	 * file. The average measures are not printed. Ground truth locations may be shared between concurrent
+	 * calls.
+	 * 
+	 * @param rankedLists
+	 *            The ranked image ids of each location, keyed by query id. Locations are evaluated in the
+	 *            iteration order of the Map.
+	 * @param locations
+	 *            A Map of MediLocation2014 objects (the ground truth).
+	 * @param printPerLocationResults
+	 *            If true, measures per location will be printed.
+	 * @param cutoff
+	 *            The cutoff at which measures will me calculated.
+	 * @return An array with the mean P@X, CR@X and F1@X
+	 * @throws Exception
+	 */
+	public static double[] evaluate(Map<Integer, long[]> rankedLists,
+			TreeMap<Integer, Medi2014LocationEval> locations, boolean printPerLocationResults, int cutoff)
+			throws Exception {
+		return evaluate(rankedLists, locations, printPerLocationResults, new int[] { cutoff })[0];
+	}
 
-			if (printPerLocationResults) {
-				System.out.println(loc.getName() + " " + loc.getCRatX() + " " + loc.getPatX() + " "
-						+ loc.getF1atX());
-			}
+	/**
+	 * Same as {@link #evaluate(Map, TreeMap, boolean, int)} but calculates the measures at several cut-offs
+	 * with a single pass over each ranked list. The ground truth objects are not modified, so this method
+	 * can be called concurrently.
+	 * 
+	 * @param rankedLists
+	 * @param locations
+	 * @param printPerLocationResults
+	 *            If true, CR@X, P@X and F1@X of each cut-off will be printed for each location.
+	 * @param cutoffs
+	 *            The cut-offs in ascending order, e.g. {@link #standardCutoffs}.
+	 * @return P@X, CR@X and F1@X averaged over all locations, for each cut-off
+	 * @throws Exception
+	 */
+	public static double[][] evaluate(Map<Integer, long[]> rankedLists,
+			TreeMap<Integer, Medi2014LocationEval> locations, boolean printPerLocationResults, int[] cutoffs)
+			throws Exception {
+		double[][] results = new double[cutoffs.length][3];
+		double[] measures = new double[3 * cutoffs.length];
 
-			mCRatX += loc.getCRatX();
-			mPatX += loc.getPatX();
-			mF1atX += loc.getF1atX();
+		int numQueriesSubmitted = 0;
 
-		} else {
-			System.out.println("Skipping location with 0 relevant images: " + loc.getId());
+		for (Map.Entry<Integer, long[]> entry : rankedLists.entrySet()) {
+			if (!locations.containsKey(entry.getKey())) {
+				throw new Exception("This qid does not exist in the ground truth!");
+			}
+			Medi2014LocationEval loc = locations.get(entry.getKey());
+			if (loc.getNumRelevant() > 0) {
+				numQueriesSubmitted++;
+				loc.getCompiledGroundTruth().calculateMeasures(entry.getValue(), cutoffs, measures);
+				StringBuilder sb = printPerLocationResults ? new StringBuilder(loc.getName()) : null;
+				for (int c = 0; c < cutoffs.length; c++) {
+					double PatX = measures[3 * c];
+					double CRatX = measures[3 * c + 1];
+					double F1atX = measures[3 * c + 2];
+					if (printPerLocationResults) {
+						sb.append(" " + CRatX + " " + PatX + " " + F1atX);
+					}
+					results[c][0] += PatX;
+					results[c][1] += CRatX;
+					results[c][2] += F1atX;
+				}
+				if (printPerLocationResults) {
+					System.out.println(sb.toString());
+				}
+			} else {
+				System.out.println("Skipping location with 0 relevant images: " + loc.getId());
+			}
 		}
 
-		mPatX /= numQueriesSubmitted;
-		mCRatX /= numQueriesSubmitted;
-		mF1atX /= numQueriesSubmitted;
-
-		System.out.println(mCRatX + " " + mPatX + " " + mF1atX);
-
-		double[] results = { mPatX, mCRatX, mF1atX };
+		for (int c = 0; c < cutoffs.length; c++) {
+			for (int m = 0; m < 3; m++) {
+				results[c][m] /= numQueriesSubmitted;
+			}
+		}
 		return results;
-
 	}
 
 	/**
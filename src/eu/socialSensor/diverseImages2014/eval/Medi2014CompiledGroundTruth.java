@@ -0,0 +1,114 @@
+package eu.socialSensor.diverseImages2014.eval;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.socialSensor.diverseImages2014.utils.LongIntHashMap;
+
+/**
+ * A read-only view of the ground truth of a location that is optimized for calculating the evaluation
+ * measures. Relevant image ids are mapped to dense cluster indices in a primitive map and distinct clusters
+ * are counted with a bitset that is reused by each thread, so the calculation does not allocate and can be
+ * called concurrently.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class Medi2014CompiledGroundTruth {
+
+	/** maps the id of each relevant image to the index of its cluster */
+	private LongIntHashMap clusterIndices;
+
+	/** the number of clusters of the location (as in dclusterGT) */
+	private int numClusters;
+
+	/** per-thread bitset of the clusters seen so far */
+	private ThreadLocal<long[]> seenClusters;
+
+	/**
+	 * Compiles the ground truth of the given location. Later changes of the location's ground truth are not
+	 * reflected in this view.
+	 *
+	 * @param relevantImages
+	 *            Relevant image names (ids) with their cluster ids
+	 * @param numClusters
+	 *            The number of distinct clusters of the location
+	 */
+	public Medi2014CompiledGroundTruth(HashMap<String, Integer> relevantImages, int numClusters) {
+		this.numClusters = numClusters;
+		clusterIndices = new LongIntHashMap(relevantImages.size());
+		HashMap<Integer, Integer> clusterIdToIndex = new HashMap<Integer, Integer>();
+		for (Map.Entry<String, Integer> entry : relevantImages.entrySet()) {
+			Integer clusterIndex = clusterIdToIndex.get(entry.getValue());
+			if (clusterIndex == null) {
+				clusterIndex = clusterIdToIndex.size();
+				clusterIdToIndex.put(entry.getValue(), clusterIndex);
+			}
+			clusterIndices.put(Long.parseLong(entry.getKey()), clusterIndex);
+		}
+		final int numWords = (clusterIdToIndex.size() + 63) >>> 6;
+		seenClusters = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[numWords];
+			}
+		};
+	}
+
+	/**
+	 * Calculates P@X, CR@X and F1@X of the given ranking at several cut-offs in a single pass.
+	 *
+	 * @param ids
+	 *            The ranked image ids
+	 * @param cutoffs
+	 *            The cut-offs in ascending order
+	 * @param measures
+	 *            An array of length 3 * cutoffs.length where P@X, CR@X and F1@X of the i-th cut-off are
+	 *            written at positions 3*i, 3*i+1 and 3*i+2
+	 */
+	public void calculateMeasures(long[] ids, int[] cutoffs, double[] measures) {
+		long[] seen = seenClusters.get();
+		Arrays.fill(seen, 0);
+		int numRelevant = 0;
+		int numDistinctClusters = 0;
+		int rank = 0;
+		for (int c = 0; c < cutoffs.length; c++) {
+			int limit = Math.min(cutoffs[c], ids.length);
+			for (; rank < limit; rank++) {
+				int clusterIndex = clusterIndices.get(ids[rank]);
+				if (clusterIndex != LongIntHashMap.NO_VALUE) {
+					numRelevant++;
+					long bit = 1L << clusterIndex;
+					if ((seen[clusterIndex >>> 6] & bit) == 0) {
+						seen[clusterIndex >>> 6] |= bit;
+						numDistinctClusters++;
+					}
+				}
+			}
+			double PatX = numRelevant / (double) cutoffs[c];
+			double CRatX = numDistinctClusters / (double) numClusters;
+			double F1atX = 0;
+			if (CRatX + PatX > 0) {
+				F1atX = (2 * CRatX * PatX) / (CRatX + PatX);
+			}
+			measures[3 * c] = PatX;
+			measures[3 * c + 1] = CRatX;
+			measures[3 * c + 2] = F1atX;
+		}
+	}
+
+	/**
+	 * Calculates P@X, CR@X and F1@X of the given ranking at a single cut-off.
+	 *
+	 * @param ids
+	 *            The ranked image ids
+	 * @param cutoff
+	 * @return An array with P@X, CR@X and F1@X
+	 */
+	public double[] calculateMeasures(long[] ids, int cutoff) {
+		double[] measures = new double[3];
+		calculateMeasures(ids, new int[] { cutoff }, measures);
+		return measures;
+	}
+
+}
@@ -130,6 +130,11 @@ public class Medi2014LocationEval {
 	 */
 	private double F1atX = 0;
 
+	/**
+	 * Lazily created view of the ground truth used for calculating the measures.
+	 */
+	private Medi2014CompiledGroundTruth compiledGroundTruth;
+
 	public Medi2014LocationEval(int id, String name) {
 		this.locationId = id;
 		this.locationName = name;
@@ -170,6 +175,32 @@ public class Medi2014LocationEval {
 		}
 	}
 
+	/**
+	 * Same as {@link #caclulateMeasures(ArrayList, int)} for image ids given as primitive longs.
+	 * 
+	 * @param ids
+	 *            Ids of the images
+	 */
+	public void caclulateMeasures(long[] ids, int cutoff) {
+		double[] measures = getCompiledGroundTruth().calculateMeasures(ids, cutoff);
+		PatX = measures[0];
+		CRatX = measures[1];
+		F1atX = measures[2];
+	}
+
+	/**
+	 * Returns a view of the ground truth of this location that calculates the measures without storing them
+	 * in this object. The view is created on the first call, i.e. after the ground truth has been loaded.
+	 * 
+	 * @return
+	 */
+	public synchronized Medi2014CompiledGroundTruth getCompiledGroundTruth() {
+		if (compiledGroundTruth == null) {
+			compiledGroundTruth = new Medi2014CompiledGroundTruth(relevantImages, clusters.size());
+		}
+		return compiledGroundTruth;
+	}
+
 	public double getCRatX() {
 		return CRatX;
 	}
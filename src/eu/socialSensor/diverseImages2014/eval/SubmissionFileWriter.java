@@ -0,0 +1,77 @@
+package eu.socialSensor.diverseImages2014.eval;
+
+import java.io.IOException;
+
+import eu.socialSensor.diverseImages2014.utils.TextChannelWriter;
+
+/**
+ * Writes a submission file in the MediaEval 2014 format, i.e. one "locationId 0 imageId rank score runName"
+ * line per image. Lines are formatted directly into a large byte buffer by a {@link TextChannelWriter},
+ * without creating intermediate Strings, and the buffer is written to the file only when it is full and when
+ * the writer is closed. Scores are formatted in the layout of {@link Double#toString(double)}.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class SubmissionFileWriter {
+
+	private TextChannelWriter out;
+
+	/** " runName\n" in ASCII */
+	private byte[] lineEnd;
+
+	/**
+	 * Creates (or overwrites) the given submission file.
+	 *
+	 * @param fileName
+	 * @param runName
+	 *            The name of the run, written at the end of each line
+	 * @throws IOException
+	 */
+	public SubmissionFileWriter(String fileName, String runName) throws IOException {
+		lineEnd = (" " + runName + "\n").getBytes("US-ASCII");
+		out = new TextChannelWriter(fileName);
+	}
+
+	/**
+	 * Writes a line of the submission file.
+	 *
+	 * @param locationId
+	 * @param imageId
+	 * @param rank
+	 *            The 0-based rank of the image
+	 * @param score
+	 * @throws IOException
+	 */
+	public void write(int locationId, long imageId, int rank, double score) throws IOException {
+		out.writeLong(locationId);
+		out.write(" 0 ");
+		out.writeLong(imageId);
+		out.write(' ');
+		out.writeLong(rank);
+		out.write(' ');
+		out.writeDouble(score);
+		out.write(lineEnd);
+	}
+
+	/**
+	 * Writes the lines of a ranked list of images, where the image at rank i has the score 1/(i+1).
+	 *
+	 * @param locationId
+	 * @param imageIds
+	 * @throws IOException
+	 */
+	public void writeRanking(int locationId, long[] imageIds) throws IOException {
+		for (int i = 0; i < imageIds.length; i++) {
+			write(locationId, imageIds[i], i, (double) 1 / (i + 1));
+		}
+	}
+
+	/**
+	 * Writes any buffered lines and closes the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -1,11 +1,20 @@
 package eu.socialSensor.diverseImages2014.learning;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
@@ -26,6 +35,7 @@ import weka.classifiers.trees.RandomForest;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
 import weka.core.Utils;
 import weka.core.converters.ConverterUtils.DataSource;
 import weka.filters.Filter;
@@ -37,6 +47,8 @@ import weka.filters.unsupervised.instance.Resample;
 import com.aliasi.util.BoundedPriorityQueue;
 
 import eu.socialSensor.diverseImages2014.MEDI2014Collection;
+import eu.socialSensor.diverseImages2014.MEDI2014Location;
+import eu.socialSensor.diverseImages2014.datasetCreation.MakeRelevanceDataset;
 import eu.socialSensor.diverseImages2014.utils.MediImageComparator2014;
 
 /**
@@ -60,12 +72,43 @@ public class EvaluateRelevanceDetector2014 {
 
 	public static final boolean debug = false;
 
+	/**
+	 * the number of copies of the instances of a fold that are assumed to be in memory at the same time
+	 * during cross-validation: the split, its copy without the extra attributes and the copy that the
+	 * classifier may keep
+	 */
+	public static final int foldMemoryFactor = 3;
+
+	/**
+	 * the number of threads used by the ensembles that build their members in parallel (rf, bagging and
+	 * bagging-j48) when a single model is built at a time. When locations are cross-validated concurrently,
+	 * each of their ensembles uses a single thread, so that at most numThreads threads are busy.
+	 */
+	public static final int defaultNumExecutionSlots = 3;
+
+	/**
+	 * The measures and the submission file lines of the cross-validation of one location.
+	 */
+	private static class FoldResult {
+		private double AuROC;
+		private double AuPRC;
+		private double Pat10;
+		private double Pat20;
+		private double Pat50;
+		private double Pat100;
+		private double FNRP;
+		private String submissionLines;
+	}
+
 	/**
 	 * Performs parameter selection via cross-validation on the devset, retrains the model on the full devset
 	 * using the selected parameters and evaluates it on the test set.
 	 * 
 	 * @param args
-	 *            [0] full path to the dataset and the dataset's filestem
+	 *            [0] full path to the dataset and the dataset's filestem (the -dev.arff and -test.arff files
+	 *            may be gzip-compressed as -dev.arff.gz and -test.arff.gz), or full path to a collection
+	 *            folder with devset/ and testset/ subfolders, e.g. C:/Medi2014/, in which case the datasets
+	 *            are built in memory from the features of the collection as specified by args [9]-[14]
 	 * @param args
 	 *            [1] how many of the remaining validation locations to use for the prediction of each
 	 *            location during cross-validation, e.g. 5
@@ -83,16 +126,35 @@ public class EvaluateRelevanceDetector2014 {
 	 *            [7] full path to the collection (if args[6] is true), e.g. C:/Medi2014/
 	 * @param args
 	 *            [8] name of the features to be created (if args[6] is true)
+	 * @param args
+	 *            [9] comma separated feature types e.g. "HOG,SURF,CM" (if args[0] is a collection)
+	 * @param args
+	 *            [10] comma separated individual feature normalizations e.g. "l2,no,l2" (if args[0] is a
+	 *            collection)
+	 * @param args
+	 *            [11] the type of normalization to apply on the concatenation of the features that are
+	 *            individually normalized, e.g. "l2" or "no" (if args[0] is a collection)
+	 * @param args
+	 *            [12] the type of normalization to apply on the overall vector, e.g. "l2" or "no" (if args[0]
+	 *            is a collection)
+	 * @param args
+	 *            [13] whether to include Wikipedia image vectors (if args[0] is a collection)
+	 * @param args
+	 *            [14] whether to create sparse instances (if args[0] is a collection)
+	 * @param args
+	 *            [15] number of locations that are cross-validated concurrently (optional, default is the
+	 *            number of available processors), lowered if their estimated memory does not fit in the heap.
+	 *            Concurrent folds build their ensembles with one thread (see
+	 *            {@link #defaultNumExecutionSlots}).
 	 * 
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
 
-		String datasetFileStem = args[0];
-		int numTrainLocations = Integer.parseInt(args[1]);
-		int wikiWeight = Integer.parseInt(args[2]);
-		boolean onlyWikiAsPositive = Boolean.parseBoolean(args[3]);
-		String classifierSelection = args[4].split(" ")[0];
+		final int numTrainLocations = Integer.parseInt(args[1]);
+		final int wikiWeight = Integer.parseInt(args[2]);
+		final boolean onlyWikiAsPositive = Boolean.parseBoolean(args[3]);
+		final String classifierSelection = args[4].split(" ")[0];
 		double parameterStart = Double.parseDouble(args[4].split(" ")[1]);
 		double parameterStep = Double.parseDouble(args[4].split(" ")[2]);
 		int parameterNumSteps = Integer.parseInt(args[4].split(" ")[3]);
@@ -115,14 +177,21 @@ public class EvaluateRelevanceDetector2014 {
 		}
 
 		System.out.println("Loading the validation dataset..");
-		DataSource source = new DataSource(datasetFileStem + "-dev.arff");
-		Instances validationDataset = source.getDataSet();
-		validationDataset.setClassIndex(validationDataset.numAttributes() - 1);
+		final Instances validationDataset = loadDataset(args, "dev");
 		System.out.println("Loading completed!\n\n");
 
 		int numValidationLocations = validationDataset.attribute(
 				Integer.valueOf(locationIdAttributeIndexString) - 1).numValues();
 
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 15) {
+			numThreads = Integer.parseInt(args[15]);
+		}
+		// where the features created from the predictions for the validation locations are written, if any
+		final MEDI2014Collection newFeaturesCollection = dataStoreTrain;
+		final String newFeaturesFolder = collectionPath + "devset/" + "descvis/img/";
+		final String newFeatureName = featureName;
+
 		// initializing measures
 		double[][] AuROC = new double[parameterNumSteps][];
 		double[][] AuPRC = new double[parameterNumSteps][];
@@ -154,131 +223,61 @@ public class EvaluateRelevanceDetector2014 {
 			String submissionFileName = submissionFileStem + "_" + classifierSelection + "_" + parameter
 					+ "-dev.txt";
 			BufferedWriter out = new BufferedWriter(new FileWriter(new File(submissionFileName)));
-			for (int locationIndex = 0; locationIndex < numValidationLocations; locationIndex++) {
-				long start = System.currentTimeMillis();
-				String locationId = String.valueOf(validationDataset.attribute(
-						Integer.valueOf(locationIdAttributeIndexString) - 1).value(locationIndex));
-				System.out.print("Evaluating classifier on location: " + locationId);
-				// System.out.println("Doing the split..");
-				Instances[] sets = EvaluateRelevanceDetector2014.createTrainTestSplitForLocationValidation(
-						locationId, validationDataset, numTrainLocations, wikiWeight, onlyWikiAsPositive);
-
-				Instances xFoldTrainDataOriginal = sets[0];
-				Instances xFoldTestDataOriginal = sets[1];
-
-				// remove the extra attributes!
-				Remove rm = new Remove();
-				// image id and location id attributes should be ignored!
-				rm.setAttributeIndices(imageIdAttributeIndexString + "," + locationIdAttributeIndexString
-						+ "," + flickrRankAttributeIndexString);
-				rm.setInputFormat(xFoldTrainDataOriginal);
-				Instances xFoldTrainData = Filter.useFilter(xFoldTrainDataOriginal, rm);
-				// the original training data can be deleted
-				xFoldTrainDataOriginal.delete();
-				Instances xFoldTestData = Filter.useFilter(xFoldTestDataOriginal, rm);
-				// the original test data are still needed
-
-				// build the model on xFoldTrainData
-				long modelStart = System.currentTimeMillis();
-				Classifier classifier = selectClassifier(classifierSelection, parameter);
-				classifier.buildClassifier(xFoldTrainData);
-				long modelEnd = System.currentTimeMillis();
-
-				// evaluate the model on xFoldTestData
-				Evaluation eval = new Evaluation(xFoldTrainData);
-				eval.evaluateModel(classifier, xFoldTestData);
-				AuROC[stepIndex][locationIndex] += eval.areaUnderROC(relevanceIndex);
-				AuPRC[stepIndex][locationIndex] += eval.areaUnderPRC(relevanceIndex);
-
-				// This bounded priority queue will hold maxNumImagesInSubmissionFile images in decreasing
-				// relevance score order
-				BoundedPriorityQueue<MediImageComparator2014> bpq = new BoundedPriorityQueue<MediImageComparator2014>(
-						new MediImageComparator2014(), xFoldTestData.numInstances());
-
-				BufferedWriter outFeatures = null;
-				if (createNewFeatures) {
-					String locationName = dataStoreTrain.getLocationList().get(locationIndex)
-							.getLocationName();
-					int queryId = dataStoreTrain.getLocationList().get(locationIndex).getQueryId();
-					if (queryId != Integer.parseInt(locationId)) {
-						throw new Exception("Incorrect location!");
-					}
-					String newFeaturesFileLocation = collectionPath + "devset/" + "descvis/img/"
-							+ locationName + " " + featureName + ".csv";
-					outFeatures = new BufferedWriter(new FileWriter(new File(newFeaturesFileLocation)));
-				}
-
-				for (int j = 0; j < xFoldTestData.numInstances(); j++) {
-					String imageId = String.valueOf(new Double(xFoldTestDataOriginal.instance(j).value(
-							Integer.valueOf(imageIdAttributeIndexString) - 1)).longValue());
-					double relevanceScore = classifier.distributionForInstance(xFoldTestData.instance(j))[relevanceIndex];
-					int flickrRank = (int) xFoldTestDataOriginal.instance(j).value(
-							Integer.valueOf(flickrRankAttributeIndexString) - 1);
-					MediImageComparator2014 srs = new MediImageComparator2014(imageId, locationIndex,
-							flickrRank, j, relevanceScore);
-					if (!bpq.offer(srs)) { // System.out.println("Offering: " + srs.toString() + " " + j);
-						throw new Exception("Queue insertion failed!");
-					}
-					if (createNewFeatures) {
-						outFeatures.write(imageId + "," + relevanceScore + "\n");
-					}
-				}
-
-				if (createNewFeatures) {
-					outFeatures.close();
-				}
-
-				// Generate a submission file where images are ordered based on relevance score.
-				// At the same time calculate the P@X and FNRP measures
-				int limit = Math.min(bpq.size(), maxNumImagesInSubmissionFile);
-				boolean firstNotRelevantFound = false; // -1 means firstNotRelevant not found
-
-				for (int j = 0; j < limit; j++) {
-					MediImageComparator2014 srs = bpq.poll();
-					int classValueIndex = (int) xFoldTestData.instance(srs.getImageIndexInTestSet())
-							.classValue();
-					if (classValueIndex == relevanceIndex) {
-						if (j < 100) {
-							Pat100[stepIndex][locationIndex] += 1;
-						}
-						if (j < 50) {
-							Pat50[stepIndex][locationIndex] += 1;
+			// the free heap is measured again at each step, the previous folds are no longer referenced
+			int numConcurrentFolds = limitConcurrentFolds(validationDataset, numValidationLocations,
+					numTrainLocations, numThreads);
+			ExecutorService executor = null;
+			ArrayList<Future<FoldResult>> folds = new ArrayList<Future<FoldResult>>();
+			if (numConcurrentFolds > 1 && numValidationLocations > 1) {
+				executor = Executors.newFixedThreadPool(Math.min(numConcurrentFolds, numValidationLocations));
+				for (int locationIndex = 0; locationIndex < numValidationLocations; locationIndex++) {
+					final int foldLocationIndex = locationIndex;
+					final double foldParameter = parameter;
+					folds.add(executor.submit(new Callable<FoldResult>() {
+						@Override
+						public FoldResult call() throws Exception {
+							// one thread per classifier, the folds already use numConcurrentFolds threads
+							return crossValidateLocation(validationDataset, foldLocationIndex,
+									numTrainLocations, wikiWeight, onlyWikiAsPositive, classifierSelection,
+									foldParameter, 1, newFeaturesCollection, newFeaturesFolder,
+									newFeatureName);
 						}
-						if (j < 20) {
-							Pat20[stepIndex][locationIndex] += 1;
-						}
-						if (j < 10) {
-							Pat10[stepIndex][locationIndex] += 1;
+					}));
+				}
+			}
+			try {
+				// the results are gathered in location order, as they would be by a single thread
+				for (int locationIndex = 0; locationIndex < numValidationLocations; locationIndex++) {
+					FoldResult fold;
+					if (executor == null) {
+						fold = crossValidateLocation(validationDataset, locationIndex, numTrainLocations,
+								wikiWeight, onlyWikiAsPositive, classifierSelection, parameter,
+								defaultNumExecutionSlots, newFeaturesCollection, newFeaturesFolder,
+								newFeatureName);
+					} else {
+						try {
+							fold = folds.get(locationIndex).get();
+						} catch (ExecutionException e) {
+							if (e.getCause() instanceof Exception) {
+								throw (Exception) e.getCause();
+							}
+							throw e;
 						}
 					}
-					if (classValueIndex == irrelevanceIndex && !firstNotRelevantFound) {
-						firstNotRelevantFound = true;
-						FNRP[stepIndex][locationIndex] = j + 1;
-					}
-					out.write(locationId + " 0 " + srs.getImageId() + " " + j + " " + srs.getRelevanceScore()
-							+ " rel_run\n");
+					AuROC[stepIndex][locationIndex] = fold.AuROC;
+					AuPRC[stepIndex][locationIndex] = fold.AuPRC;
+					Pat10[stepIndex][locationIndex] = fold.Pat10;
+					Pat20[stepIndex][locationIndex] = fold.Pat20;
+					Pat50[stepIndex][locationIndex] = fold.Pat50;
+					Pat100[stepIndex][locationIndex] = fold.Pat100;
+					FNRP[stepIndex][locationIndex] = fold.FNRP;
+					out.write(fold.submissionLines);
+					out.flush();
+				}
+			} finally {
+				if (executor != null) {
+					executor.shutdownNow();
 				}
-				out.flush();
-
-				Pat10[stepIndex][locationIndex] /= 10.0;
-				Pat20[stepIndex][locationIndex] /= 20.0;
-				Pat50[stepIndex][locationIndex] /= 50.0;
-				Pat100[stepIndex][locationIndex] /= 100.0;
-
-				// System.out.print("Measures: ");
-				// System.out.print(AuROC[stepIndex][locationIndex] + ",");
-				// System.out.print(AuPRC[stepIndex][locationIndex] + ",");
-				// System.out.print(Pat10[stepIndex][locationIndex] + ",");
-				// System.out.print(Pat20[stepIndex][locationIndex] + ",");
-				// System.out.print(Pat50[stepIndex][locationIndex] + ",");
-				// System.out.print(Pat100[stepIndex][locationIndex] + ",");
-				// System.out.println(FNRP[stepIndex][locationIndex]);
-
-				long end = System.currentTimeMillis();
-
-				// System.out.println("Model building time in ms: " + (modelEnd - modelStart));
-				// System.out.println("Total time in ms: " + (end - start) + "\n");
-
 			}
 			out.close();
 
@@ -324,9 +323,7 @@ public class EvaluateRelevanceDetector2014 {
 		// see the MakePredictionsWithRelevanceDetector class..
 
 		System.out.println("Loading the test dataset..");
-		source = new DataSource(datasetFileStem + "-test.arff");
-		Instances testDataset = source.getDataSet();
-		testDataset.setClassIndex(testDataset.numAttributes() - 1);
+		Instances testDataset = loadDataset(args, "test");
 		System.out.println("Loading completed!\n");
 
 		int numTestLocations = testDataset.attribute(Integer.valueOf(locationIdAttributeIndexString) - 1)
@@ -469,6 +466,248 @@ public class EvaluateRelevanceDetector2014 {
 
 	}
 
+	/**
+	 * Cross-validates the classifier on one location of the validation dataset: builds it on the train set of
+	 * {@link #createTrainTestSplitForLocationValidation} and evaluates it on the images of the location. The
+	 * validation dataset is not modified, so the locations can be cross-validated concurrently.
+	 * 
+	 * @param validationDataset
+	 * @param locationIndex
+	 * @param numTrainLocations
+	 * @param wikiWeight
+	 * @param onlyWikiAsPositive
+	 * @param classifierSelection
+	 * @param parameter
+	 * @param numExecutionSlots
+	 *            The number of threads of the classifier, see {@link #selectClassifier(String, double, int)}
+	 * @param newFeaturesCollection
+	 *            The validation collection if features are created from the predictions, otherwise null
+	 * @param newFeaturesFolder
+	 * @param featureName
+	 * @return
+	 * @throws Exception
+	 */
+	private static FoldResult crossValidateLocation(Instances validationDataset, int locationIndex,
+			int numTrainLocations, int wikiWeight, boolean onlyWikiAsPositive, String classifierSelection,
+			double parameter, int numExecutionSlots, MEDI2014Collection newFeaturesCollection,
+			String newFeaturesFolder, String featureName) throws Exception {
+		FoldResult fold = new FoldResult();
+		long start = System.currentTimeMillis();
+		String locationId = String.valueOf(validationDataset.attribute(
+				Integer.valueOf(locationIdAttributeIndexString) - 1).value(locationIndex));
+		System.out.println("Evaluating classifier on location: " + locationId);
+		// System.out.println("Doing the split..");
+		Instances[] sets = EvaluateRelevanceDetector2014.createTrainTestSplitForLocationValidation(locationId,
+				validationDataset, numTrainLocations, wikiWeight, onlyWikiAsPositive);
+
+		Instances xFoldTrainDataOriginal = sets[0];
+		Instances xFoldTestDataOriginal = sets[1];
+
+		// remove the extra attributes!
+		Remove rm = new Remove();
+		// image id and location id attributes should be ignored!
+		rm.setAttributeIndices(imageIdAttributeIndexString + "," + locationIdAttributeIndexString + ","
+				+ flickrRankAttributeIndexString);
+		rm.setInputFormat(xFoldTrainDataOriginal);
+		Instances xFoldTrainData = Filter.useFilter(xFoldTrainDataOriginal, rm);
+		// the original training data can be deleted
+		xFoldTrainDataOriginal.delete();
+		Instances xFoldTestData = Filter.useFilter(xFoldTestDataOriginal, rm);
+		// the original test data are still needed
+
+		// build the model on xFoldTrainData
+		long modelStart = System.currentTimeMillis();
+		Classifier classifier = selectClassifier(classifierSelection, parameter, numExecutionSlots);
+		classifier.buildClassifier(xFoldTrainData);
+		long modelEnd = System.currentTimeMillis();
+
+		// evaluate the model on xFoldTestData
+		Evaluation eval = new Evaluation(xFoldTrainData);
+		eval.evaluateModel(classifier, xFoldTestData);
+		fold.AuROC = eval.areaUnderROC(relevanceIndex);
+		fold.AuPRC = eval.areaUnderPRC(relevanceIndex);
+
+		// This bounded priority queue will hold maxNumImagesInSubmissionFile images in decreasing
+		// relevance score order
+		BoundedPriorityQueue<MediImageComparator2014> bpq = new BoundedPriorityQueue<MediImageComparator2014>(
+				new MediImageComparator2014(), xFoldTestData.numInstances());
+
+		BufferedWriter outFeatures = null;
+		if (newFeaturesCollection != null) {
+			MEDI2014Location location = newFeaturesCollection.getLocationList().get(locationIndex);
+			String locationName = location.getLocationName();
+			int queryId = location.getQueryId();
+			if (queryId != Integer.parseInt(locationId)) {
+				throw new Exception("Incorrect location!");
+			}
+			String newFeaturesFileLocation = newFeaturesFolder + locationName + " " + featureName + ".csv";
+			outFeatures = new BufferedWriter(new FileWriter(new File(newFeaturesFileLocation)));
+		}
+
+		for (int j = 0; j < xFoldTestData.numInstances(); j++) {
+			String imageId = String.valueOf(new Double(xFoldTestDataOriginal.instance(j).value(
+					Integer.valueOf(imageIdAttributeIndexString) - 1)).longValue());
+			double relevanceScore = classifier.distributionForInstance(xFoldTestData.instance(j))[relevanceIndex];
+			int flickrRank = (int) xFoldTestDataOriginal.instance(j).value(
+					Integer.valueOf(flickrRankAttributeIndexString) - 1);
+			MediImageComparator2014 srs = new MediImageComparator2014(imageId, locationIndex, flickrRank, j,
+					relevanceScore);
+			if (!bpq.offer(srs)) { // System.out.println("Offering: " + srs.toString() + " " + j);
+				throw new Exception("Queue insertion failed!");
+			}
+			if (outFeatures != null) {
+				outFeatures.write(imageId + "," + relevanceScore + "\n");
+			}
+		}
+
+		if (outFeatures != null) {
+			outFeatures.close();
+		}
+
+		// Generate the submission file lines where images are ordered based on relevance score.
+		// At the same time calculate the P@X and FNRP measures
+		StringBuilder submissionLines = new StringBuilder();
+		int limit = Math.min(bpq.size(), maxNumImagesInSubmissionFile);
+		boolean firstNotRelevantFound = false; // -1 means firstNotRelevant not found
+
+		for (int j = 0; j < limit; j++) {
+			MediImageComparator2014 srs = bpq.poll();
+			int classValueIndex = (int) xFoldTestData.instance(srs.getImageIndexInTestSet()).classValue();
+			if (classValueIndex == relevanceIndex) {
+				if (j < 100) {
+					fold.Pat100 += 1;
+				}
+				if (j < 50) {
+					fold.Pat50 += 1;
+				}
+				if (j < 20) {
+					fold.Pat20 += 1;
+				}
+				if (j < 10) {
+					fold.Pat10 += 1;
+				}
+			}
+			if (classValueIndex == irrelevanceIndex && !firstNotRelevantFound) {
+				firstNotRelevantFound = true;
+				fold.FNRP = j + 1;
+			}
+			submissionLines.append(locationId + " 0 " + srs.getImageId() + " " + j + " "
+					+ srs.getRelevanceScore() + " rel_run\n");
+		}
+		fold.submissionLines = submissionLines.toString();
+
+		fold.Pat10 /= 10.0;
+		fold.Pat20 /= 20.0;
+		fold.Pat50 /= 50.0;
+		fold.Pat100 /= 100.0;
+
+		// System.out.print("Measures: ");
+		// System.out.print(fold.AuROC + ",");
+		// System.out.print(fold.AuPRC + ",");
+		// System.out.print(fold.Pat10 + ",");
+		// System.out.print(fold.Pat20 + ",");
+		// System.out.print(fold.Pat50 + ",");
+		// System.out.print(fold.Pat100 + ",");
+		// System.out.println(fold.FNRP);
+
+		long end = System.currentTimeMillis();
+
+		// System.out.println("Model building time in ms: " + (modelEnd - modelStart));
+		// System.out.println("Total time in ms: " + (end - start) + "\n");
+
+		return fold;
+	}
+
+	/**
+	 * Returns the number of locations to cross-validate concurrently: the given number of threads, lowered if
+	 * needed so that the estimated memory of the folds fits in the free heap. The instances of a fold are
+	 * those of numTrainLocations + 1 locations and {@link #foldMemoryFactor} copies of them are assumed to
+	 * be alive at the same time. It is called before each parameter step. Garbage that has not been collected
+	 * yet counts as used, so the estimate errs on the side of fewer folds.
+	 * 
+	 * @param validationDataset
+	 * @param numLocations
+	 * @param numTrainLocations
+	 * @param numThreads
+	 * @return
+	 */
+	private static int limitConcurrentFolds(Instances validationDataset, int numLocations,
+			int numTrainLocations, int numThreads) {
+		long foldBytes = foldMemoryFactor * estimateNumBytes(validationDataset) * (numTrainLocations + 1)
+				/ numLocations;
+		Runtime runtime = Runtime.getRuntime();
+		long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long maxFolds = Math.max(1, freeBytes / Math.max(1, foldBytes));
+		if (maxFolds < numThreads) {
+			System.out.println("Cross-validating " + maxFolds + " instead of " + numThreads
+					+ " locations concurrently, each fold needs about " + (foldBytes >> 20) + " MB");
+			return (int) maxFolds;
+		}
+		return numThreads;
+	}
+
+	/**
+	 * Returns a rough estimate of the memory used by the values of the given instances: 8 bytes per value of
+	 * a dense instance and 12 bytes (value and index) per non-zero value of a sparse instance.
+	 * 
+	 * @param instances
+	 * @return
+	 */
+	private static long estimateNumBytes(Instances instances) {
+		long numBytes = 0;
+		for (int i = 0; i < instances.numInstances(); i++) {
+			Instance instance = instances.instance(i);
+			numBytes += instance.numValues() * (instance instanceof SparseInstance ? 12L : 8L);
+		}
+		return numBytes;
+	}
+
+	/**
+	 * Loads the dev or the test dataset, either from the ARFF file of the given file stem or directly from
+	 * the features of the collection, without writing and parsing an ARFF file. If the ARFF file does not
+	 * exist, its gzip-compressed version (.arff.gz) is decompressed while it is parsed. The last attribute is
+	 * set as the class.
+	 * 
+	 * @param args
+	 *            The arguments of {@link #main(String[])}
+	 * @param set
+	 *            "dev" or "test"
+	 * @return
+	 * @throws Exception
+	 */
+	private static Instances loadDataset(String[] args, String set) throws Exception {
+		Instances dataset;
+		if (new File(args[0]).isDirectory()) {
+			String[] featureTypes = args[9].split(",");
+			String[] individualNorms = args[10].split(",");
+			if (featureTypes.length != individualNorms.length) {
+				throw new Exception("Features types and normalizations have different sizes!");
+			}
+			MEDI2014Collection collection = new MEDI2014Collection(args[0] + set + "set/");
+			collection.loadAll(Boolean.parseBoolean(args[13]), featureTypes, individualNorms);
+			MakeRelevanceDataset marf = new MakeRelevanceDataset(collection, featureTypes);
+			dataset = marf.createInstances(individualNorms, args[11], args[12],
+					Boolean.parseBoolean(args[14]));
+		} else {
+			File arffFile = new File(args[0] + "-" + set + ".arff");
+			File gzipFile = new File(arffFile.getPath() + ".gz");
+			if (!arffFile.exists() && gzipFile.exists()) {
+				InputStream in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(gzipFile),
+						1 << 16), 1 << 16);
+				try {
+					dataset = new DataSource(in).getDataSet();
+				} finally {
+					in.close();
+				}
+			} else {
+				DataSource source = new DataSource(arffFile.getPath());
+				dataset = source.getDataSet();
+			}
+		}
+		dataset.setClassIndex(dataset.numAttributes() - 1);
+		return dataset;
+	}
+
 	/**
 	 * Returns the position of the measure in the ArrayList or -1 if not found.
 	 * 
@@ -522,21 +761,22 @@ public class EvaluateRelevanceDetector2014 {
 				.numValues();
 
 		// 1. Apply the RemoveWithValues filter to split the dataset into a test set that contains only the
-		// given location and a train set that contains all other locations!
+		// given location
 		RemoveWithValues rwv = new RemoveWithValues();
 		rwv.setAttributeIndex(locationIdAttributeIndexString);
 		rwv.setNominalIndices(locationId);
-		rwv.setInvertSelection(false);
-		rwv.setInputFormat(vadidationSet);
-		Instances locTrainData = Filter.useFilter(vadidationSet, rwv);
 		rwv.setInvertSelection(true);
+		rwv.setInputFormat(vadidationSet);
 		Instances locTestData = Filter.useFilter(vadidationSet, rwv);
-		// 2. Apply the RemoveWithValues filter again to keep only numTrainLocations from the train set!
+		// 2. Apply the RemoveWithValues filter again to create a train set with numTrainLocations of the
+		// other locations! They are selected directly from the dataset rather than from a copy of all the
+		// other locations, which would hold most of the dataset in memory for each location.
 		// 2a. Generate numTrainLocations location indices at random
 		// initialize random generator using location id as seed
 		Random rand = new Random(Integer.parseInt(locationId));
 		HashSet<String> locationIds = new HashSet<String>();
-		System.out.print(" using locations: ");
+		// printed at once, so that the lines of locations split concurrently are not mixed
+		StringBuilder usedLocations = new StringBuilder();
 		while (locationIds.size() < numTrainLocations) {
 			// nextInt generates a random int between 0 (inclusive) and numLocations (exclusive), therefore we
 			// add 1
@@ -545,10 +785,10 @@ public class EvaluateRelevanceDetector2014 {
 				continue; // this location is already excluded from the train set, so select a different index
 			}
 			if (locationIds.add(String.valueOf(randomLocationId))) {
-				System.out.print(randomLocationId + " ");
+				usedLocations.append(randomLocationId + " ");
 			}
 		}
-		System.out.println();
+		System.out.println("Location " + locationId + " using locations: " + usedLocations);
 		// 2b. Do the filtering of these indices
 		String nominalIndices = "";
 		for (String index : locationIds) {
@@ -560,7 +800,7 @@ public class EvaluateRelevanceDetector2014 {
 		rwv.setNominalIndices(nominalIndices);
 		rwv.setInvertSelection(true);
 		rwv.setInputFormat(vadidationSet);
-		locTrainData = Filter.useFilter(locTrainData, rwv);
+		Instances locTrainData = Filter.useFilter(vadidationSet, rwv);
 
 		// 3. Now work with the Wikipedia images of the two sets
 		// 3.a If useOnlyWikiAsPositive is true
@@ -730,6 +970,22 @@ public class EvaluateRelevanceDetector2014 {
 	}
 
 	public static Classifier selectClassifier(String choice, double parameter) throws Exception {
+		return selectClassifier(choice, parameter, defaultNumExecutionSlots);
+	}
+
+	/**
+	 * Returns the classifier of the given choice.
+	 * 
+	 * @param choice
+	 * @param parameter
+	 * @param numExecutionSlots
+	 *            The number of threads used by the ensembles that build their members in parallel (rf,
+	 *            bagging and bagging-j48)
+	 * @return
+	 * @throws Exception
+	 */
+	public static Classifier selectClassifier(String choice, double parameter, int numExecutionSlots)
+			throws Exception {
 		if (choice.equals("j48")) {
 			J48 j48 = new J48();
 			// j48.setBinarySplits(true);
@@ -753,7 +1009,7 @@ public class EvaluateRelevanceDetector2014 {
 			RandomForest rf = new RandomForest();
 			// rf.setNumTrees(100);
 			// rf.setNumTrees((int) parameter);
-			rf.setNumExecutionSlots(3);
+			rf.setNumExecutionSlots(numExecutionSlots);
 			return rf;
 		} else if (choice.equals("ibk")) {
 			IBk knn = new IBk();
@@ -769,13 +1025,13 @@ public class EvaluateRelevanceDetector2014 {
 		} else if (choice.equals("bagging")) {
 			Bagging bag = new Bagging();
 			bag.setNumIterations(10);
-			bag.setNumExecutionSlots(3);
+			bag.setNumExecutionSlots(numExecutionSlots);
 			return bag;
 		} else if (choice.equals("bagging-j48")) {
 			Bagging bag = new Bagging();
 			bag.setClassifier(new J48());
 			bag.setNumIterations(100);
-			bag.setNumExecutionSlots(3);
+			bag.setNumExecutionSlots(numExecutionSlots);
 			return bag;
 		} else if (choice.equals("zeror")) {
 			ZeroR zeror = new ZeroR();
@@ -783,7 +1039,7 @@ public class EvaluateRelevanceDetector2014 {
 		} else if (choice.equals("stump")) {
 			DecisionStump stump = new DecisionStump();
 			return stump;
-		} else if (choice.equals("dt")) {F
+		} else if (choice.equals("dt")) {
 			DecisionTable dt = new DecisionTable();
 			return dt;
 		} else if (choice.equals("logistic")) {
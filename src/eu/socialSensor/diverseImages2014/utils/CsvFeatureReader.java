@@ -0,0 +1,335 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A streaming reader for comma separated feature files that scans the raw bytes of the file. Lines and tokens
+ * are never materialized as Strings: ids are parsed as longs and values as doubles directly from the byte
+ * buffer, and the values of a line are stored either in a caller-supplied array or, when the length of the
+ * line is not known, in a reusable buffer.
+ * <p>
+ * Numbers with at most 15 significant digits and small exponents (the common case) are converted exactly
+ * with a single floating point multiplication or division. Any other token is handed to
+ * {@link Double#parseDouble(String)}, so the parsed values and the thrown exceptions are the same as when
+ * splitting each line and parsing every token.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class CsvFeatureReader {
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/** mantissas below this value are exactly representable as doubles */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private InputStream in;
+
+	private byte[] buf = new byte[1 << 16];
+
+	/** position of the next unread byte of the current line */
+	private int pos;
+
+	/** end of the current line (exclusive) */
+	private int lineEnd;
+
+	/** end of the valid bytes in the buffer */
+	private int limit;
+
+	private boolean eof;
+
+	/** reusable buffer for the values of a line */
+	private double[] values = new double[1024];
+
+	public CsvFeatureReader(String fileName) throws IOException {
+		in = new FileInputStream(fileName);
+	}
+
+	/**
+	 * Advances to the next non-empty line.
+	 *
+	 * @return false if the end of the file has been reached
+	 * @throws IOException
+	 */
+	public boolean nextLine() throws IOException {
+		while (true) {
+			pos = lineEnd;
+			// skip the line terminator(s) of the previous line and any empty lines
+			while (true) {
+				if (pos == limit && !fill()) {
+					return false;
+				}
+				if (buf[pos] != '\n' && buf[pos] != '\r') {
+					break;
+				}
+				pos++;
+			}
+			int end = pos;
+			while (true) {
+				if (end == limit) {
+					int start = pos;
+					boolean more = fill();
+					end -= start - pos; // the line was moved to the beginning of the buffer
+					if (!more) {
+						break;
+					}
+					continue;
+				}
+				if (buf[end] == '\n' || buf[end] == '\r') {
+					break;
+				}
+				end++;
+			}
+			lineEnd = end;
+			// trailing empty tokens are ignored, as with String.split
+			while (lineEnd > pos && buf[lineEnd - 1] == ',') {
+				lineEnd--;
+			}
+			if (lineEnd > pos) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Moves the unread part of the buffer to its beginning (growing it if it is full) and reads more bytes.
+	 *
+	 * @return false if no more bytes are available
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		int remaining = limit - pos;
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, remaining);
+		} else if (remaining == buf.length) {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		lineEnd -= pos;
+		pos = 0;
+		limit = remaining;
+		int read = in.read(buf, limit, buf.length - limit);
+		if (read <= 0) {
+			eof = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	public boolean hasNextToken() {
+		return pos < lineEnd;
+	}
+
+	/**
+	 * @return the end (exclusive) of the token that starts at the current position
+	 */
+	private int tokenEnd() {
+		int end = pos;
+		while (end < lineEnd && buf[end] != ',') {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Moves past the given token end and the comma that follows it.
+	 */
+	private void consume(int end) {
+		pos = end < lineEnd ? end + 1 : end;
+	}
+
+	public void skipToken() {
+		consume(tokenEnd());
+	}
+
+	/**
+	 * @return whether the next token consists of exactly the given ASCII characters
+	 */
+	public boolean nextTokenEquals(String token) {
+		int end = tokenEnd();
+		if (end - pos != token.length()) {
+			return false;
+		}
+		for (int i = 0; i < token.length(); i++) {
+			if (buf[pos + i] != token.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the next token can be parsed by {@link Double#parseDouble(String)}
+	 */
+	public boolean nextTokenIsDouble() {
+		int end = tokenEnd();
+		if (!Double.isNaN(parseDecimal(pos, end))) {
+			return true;
+		}
+		try {
+			Double.parseDouble(tokenString(end));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	public long nextLong() {
+		int end = tokenEnd();
+		int p = pos;
+		boolean negative = p < end && buf[p] == '-';
+		if (negative || (p < end && buf[p] == '+')) {
+			p++;
+		}
+		long value = 0;
+		boolean fast = p < end && end - p <= 18;
+		for (int i = p; fast && i < end; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9) {
+				fast = false;
+			}
+			value = value * 10 + digit;
+		}
+		if (!fast) {
+			value = Long.parseLong(tokenString(end));
+		} else if (negative) {
+			value = -value;
+		}
+		consume(end);
+		return value;
+	}
+
+	public double nextDouble() {
+		int end = tokenEnd();
+		double value = parseDecimal(pos, end);
+		if (Double.isNaN(value)) {
+			value = Double.parseDouble(tokenString(end));
+		}
+		consume(end);
+		return value;
+	}
+
+	/**
+	 * Parses all remaining tokens of the current line into the elements [from, to) of the given array, so
+	 * that lines of a known length are parsed without allocating anything.
+	 *
+	 * @param vector
+	 * @param from
+	 * @param to
+	 * @return The number of values of the line, values beyond the first to - from are parsed but not stored
+	 */
+	public int nextDoubles(double[] vector, int from, int to) {
+		int numValues = 0;
+		while (hasNextToken()) {
+			double value = nextDouble();
+			if (from + numValues < to) {
+				vector[from + numValues] = value;
+			}
+			numValues++;
+		}
+		return numValues;
+	}
+
+	/**
+	 * Parses all remaining tokens of the current line, for lines of unknown length.
+	 *
+	 * @return a new array with the values
+	 */
+	public double[] nextDoubles() {
+		int numValues = 0;
+		while (hasNextToken()) {
+			if (numValues == values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+			values[numValues++] = nextDouble();
+		}
+		return Arrays.copyOf(values, numValues);
+	}
+
+	private String tokenString(int end) {
+		return new String(buf, pos, end - pos, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Exact fast path for plain decimal numbers.
+	 *
+	 * @return the parsed value or NaN if the token has to be parsed by {@link Double#parseDouble(String)}
+	 */
+	private double parseDecimal(int start, int end) {
+		int p = start;
+		boolean negative = false;
+		if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+			negative = buf[p] == '-';
+			p++;
+		}
+		long mantissa = 0;
+		int numDigits = 0; // significant digits in the mantissa
+		int exponent = 0;
+		boolean anyDigit = false;
+		boolean dot = false;
+		for (; p < end; p++) {
+			byte b = buf[p];
+			if (b >= '0' && b <= '9') {
+				anyDigit = true;
+				if (mantissa != 0 || b != '0') {
+					if (++numDigits > 15) {
+						return Double.NaN;
+					}
+					mantissa = mantissa * 10 + (b - '0');
+				}
+				if (dot) {
+					exponent--;
+				}
+			} else if (b == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+		}
+		if (!anyDigit) {
+			return Double.NaN;
+		}
+		if (p < end) {
+			if (buf[p] != 'e' && buf[p] != 'E') {
+				return Double.NaN;
+			}
+			p++;
+			boolean negativeExponent = false;
+			if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+				negativeExponent = buf[p] == '-';
+				p++;
+			}
+			if (p == end || end - p > 4) {
+				return Double.NaN;
+			}
+			int explicitExponent = 0;
+			for (; p < end; p++) {
+				int digit = buf[p] - '0';
+				if (digit < 0 || digit > 9) {
+					return Double.NaN;
+				}
+				explicitExponent = explicitExponent * 10 + digit;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+			value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		} else {
+			return Double.NaN;
+		}
+		return negative ? -value : value;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,121 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+/**
+ * A distance function between two vectors. Implementations of the distance functions supported by the
+ * collection are obtained by name from {@link Distances#getDistanceFunction(String)}, so that the name is
+ * resolved once and not for every pair of vectors.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public interface DistanceFunction {
+
+	/**
+	 * Returns the name of the distance function, as used in distance file names (e.g. "euclidean").
+	 *
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * Computes the distance between the given vectors.
+	 *
+	 * @param vec1
+	 * @param vec2
+	 * @return
+	 * @throws Exception
+	 */
+	double distance(double[] vec1, double[] vec2) throws Exception;
+
+	/**
+	 * Computes the distances of the given vector to vectors [from, to) of the given array and stores the
+	 * distance to vecs[i] in distances[i - from].
+	 *
+	 * @param vec
+	 * @param vecs
+	 * @param from
+	 * @param to
+	 * @param distances
+	 *            An array of length at least to - from
+	 * @throws Exception
+	 */
+	void distances(double[] vec, double[][] vecs, int from, int to, double[] distances) throws Exception;
+
+	/**
+	 * Computes the distances of all vectors of vecs1 to all vectors of vecs2 and stores the distance of
+	 * vecs1[i] to vecs2[j] in distances[i * vecs2.length + j].
+	 *
+	 * @param vecs1
+	 * @param vecs2
+	 * @param distances
+	 *            An array of length at least vecs1.length * vecs2.length
+	 * @throws Exception
+	 */
+	void distances(double[][] vecs1, double[][] vecs2, double[] distances) throws Exception;
+
+	/**
+	 * Computes the distances of vectors [rowStart, rowEnd) of the given array to all subsequent vectors and
+	 * stores them in the packed upper-triangular layout of {@link PairwiseDistanceMatrix}, i.e. the distance
+	 * of vecs[i] to vecs[j], i &lt; j, is stored at position i * (2 * n - i - 1) / 2 + j - i - 1 where n is
+	 * the number of vectors. Calling it with rowStart = 0 and rowEnd = n computes all pairwise distances,
+	 * while disjoint row ranges can be computed in parallel. The values of {@link #prepare(double[][])} are
+	 * computed for all vectors by each call, so callers that split the rows in ranges should compute them
+	 * once and use {@link #pairwiseDistances(double[][], double[], int, int, double[])} instead.
+	 *
+	 * @param vecs
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param distances
+	 *            An array of length at least {@link PairwiseDistanceMatrix#numPairs(int)}
+	 * @throws Exception
+	 */
+	void pairwiseDistances(double[][] vecs, int rowStart, int rowEnd, double[] distances) throws Exception;
+
+	/**
+	 * Same as {@link #pairwiseDistances(double[][], int, int, double[])} with the values of the vectors
+	 * computed in advance by {@link #prepare(double[][])}.
+	 *
+	 * @param vecs
+	 * @param values
+	 *            The values returned by {@link #prepare(double[][])} for vecs
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param distances
+	 * @throws Exception
+	 */
+	void pairwiseDistances(double[][] vecs, double[] values, int rowStart, int rowEnd, double[] distances)
+			throws Exception;
+
+	/**
+	 * Returns the values of each of the given vectors that the function needs to compute many distances,
+	 * e.g. the norms for the cosine distance, or null if it needs none. They are computed once per vector
+	 * and not once per pair.
+	 *
+	 * @param vecs
+	 * @return
+	 */
+	double[] prepare(double[][] vecs);
+
+	/**
+	 * Same as {@link #prepare(double[][])} for the rows of the given matrix. Rows without a vector get 0.
+	 *
+	 * @param matrix
+	 * @return
+	 */
+	double[] prepare(FeatureMatrix matrix);
+
+	/**
+	 * Computes the distance between rows row1 and row2 of the given matrix. The inner product, cosine and
+	 * Euclidean distances read the rows in place with scalar loops (see
+	 * {@link FeatureMatrix#innerProduct(int, int)}), the other functions copy them.
+	 *
+	 * @param matrix
+	 * @param row1
+	 * @param row2
+	 * @param values
+	 *            The values returned by {@link #prepare(FeatureMatrix)} for the matrix
+	 * @return
+	 * @throws Exception
+	 */
+	double distance(FeatureMatrix matrix, int row1, int row2, double[] values) throws Exception;
+
+}
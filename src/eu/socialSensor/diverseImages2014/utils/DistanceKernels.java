@@ -0,0 +1,39 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+/**
+ * The loops over the elements of two vectors that the vector distance functions of {@link Distances} are
+ * built on. By default, {@link Distances} uses its own scalar loops; an implementation that uses SIMD
+ * instructions can be selected at runtime instead (see {@link Distances#vectorKernelsProperty}).
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public interface DistanceKernels {
+
+	/**
+	 * Returns the inner product of the given vectors.
+	 *
+	 * @param vec1
+	 * @param vec2
+	 * @return
+	 */
+	double innerProduct(double[] vec1, double[] vec2);
+
+	/**
+	 * Returns the squared Euclidean distance between the given vectors.
+	 *
+	 * @param vec1
+	 * @param vec2
+	 * @return
+	 */
+	double euclideanDistanceSquared(double[] vec1, double[] vec2);
+
+	/**
+	 * Returns the cosine distance between the given vectors, computing their inner product and both norms in
+	 * a single pass.
+	 *
+	 * @param vec1
+	 * @param vec2
+	 * @return
+	 */
+	double cosineDistance(double[] vec1, double[] vec2);
+}
@@ -1,5 +1,7 @@
 package eu.socialSensor.diverseImages2014.utils;
 
+import java.util.HashMap;
+
 import com.javadocmd.simplelatlng.LatLng;
 import com.javadocmd.simplelatlng.LatLngTool;
 import com.javadocmd.simplelatlng.util.LengthUnit;
@@ -10,11 +12,54 @@ import com.javadocmd.simplelatlng.util.LengthUnit;
  */
 public class Distances {
 
+	/**
+	 * If this system property is true (e.g. -DdiverseImages.vectorKernels=true), the inner products, squared
+	 * Euclidean distances and cosine distances are computed by the SIMD kernels of
+	 * {@link #vectorKernelsClass}, which use the incubating JDK Vector API. They are built by the vector
+	 * module (JDK 16 or later) and need --add-modules jdk.incubator.vector at runtime. If they cannot be
+	 * loaded, a warning is printed and the scalar loops of this class are used. The SIMD kernels pay off for
+	 * long vectors (e.g. CNN features) and sum the elements in a different order, so their results may
+	 * differ in the last bits.
+	 */
+	public static final String vectorKernelsProperty = "diverseImages.vectorKernels";
+
+	public static final String vectorKernelsClass =
+			"eu.socialSensor.diverseImages2014.vector.VectorDistanceKernels";
+
+	/** the SIMD kernels, or null if the scalar loops are used */
+	private static final DistanceKernels vectorKernels = loadVectorKernels();
+
+	private static DistanceKernels loadVectorKernels() {
+		if (!Boolean.getBoolean(vectorKernelsProperty)) {
+			return null;
+		}
+		try {
+			return Class.forName(vectorKernelsClass).asSubclass(DistanceKernels.class)
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// e.g. a missing class or a JVM without the jdk.incubator.vector module
+			System.err.println("Could not load " + vectorKernelsClass + ", using scalar distances: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether the SIMD kernels are used (see {@link #vectorKernelsProperty}).
+	 * 
+	 * @return
+	 */
+	public static boolean usesVectorKernels() {
+		return vectorKernels != null;
+	}
+
 	private static double euclideanDistance(double[] vec1, double[] vec2) {
 		return Math.sqrt(euclideanDistanceSquared(vec1, vec2));
 	}
 
 	private static double euclideanDistanceSquared(double[] vec1, double[] vec2) {
+		if (vectorKernels != null) {
+			return vectorKernels.euclideanDistanceSquared(vec1, vec2);
+		}
 		double distance = 0;
 		for (int i = 0; i < vec1.length; i++) {
 			distance += (vec1[i] - vec2[i]) * (vec1[i] - vec2[i]);
@@ -23,14 +68,42 @@ public class Distances {
 	}
 
 	private static double innerProductDistance(double[] vec1, double[] vec2) {
+		return 1 - innerProduct(vec1, vec2);
+	}
+
+	/**
+	 * Returns the inner product of the given vectors.
+	 * 
+	 * @param vec1
+	 * @param vec2
+	 * @return
+	 */
+	public static double innerProduct(double[] vec1, double[] vec2) {
+		if (vectorKernels != null) {
+			return vectorKernels.innerProduct(vec1, vec2);
+		}
 		double innerp = 0;
 		for (int i = 0; i < vec1.length; i++) {
 			innerp += vec1[i] * vec2[i];
 		}
-		return 1 - innerp;
+		return innerp;
+	}
+
+	/**
+	 * Returns the L2 norm of the given vector, e.g. to be passed to
+	 * {@link #cosineDistance(double[], double[], double, double)}.
+	 * 
+	 * @param vec
+	 * @return
+	 */
+	public static double norm(double[] vec) {
+		return Math.sqrt(innerProduct(vec, vec));
 	}
 
 	public static double cosineDistance(double[] vec1, double[] vec2) {
+		if (vectorKernels != null) {
+			return vectorKernels.cosineDistance(vec1, vec2);
+		}
 		double innerp = 0;
 		double norm1 = 0;
 		double norm2 = 0;
@@ -42,6 +115,23 @@ public class Distances {
 		return 1 - (innerp / (Math.sqrt(norm1) * Math.sqrt(norm2)));
 	}
 
+	/**
+	 * Same as {@link #cosineDistance(double[], double[])} with the norms of the vectors computed in advance
+	 * (see {@link #norm(double[])}), so that only their inner product is computed. Useful when each vector
+	 * is compared with many others.
+	 * 
+	 * @param vec1
+	 * @param vec2
+	 * @param norm1
+	 *            The L2 norm of vec1
+	 * @param norm2
+	 *            The L2 norm of vec2
+	 * @return
+	 */
+	public static double cosineDistance(double[] vec1, double[] vec2, double norm1, double norm2) {
+		return 1 - (innerProduct(vec1, vec2) / (norm1 * norm2));
+	}
+
 	private static double rankDistance(double[] rank1, double[] rank2) {
 		return Math.abs(rank1[0] - rank2[0]) / (double) 300;
 	}
@@ -73,25 +163,255 @@ public class Distances {
 		return distance;
 	}
 
-	public static double computeDistance(double[] fVec1, double[] fVec2, String dfunc) throws Exception {
-		if (dfunc.equals("innerp")) {
-			return innerProductDistance(fVec1, fVec2);
-		} else if (dfunc.equals("cosine")) {
-			return cosineDistance(fVec1, fVec2);
-		} else if (dfunc.equals("euclidean")) {
-			return euclideanDistance(fVec1, fVec2);
-		} else if (dfunc.equals("geo")) {
-			return geoDistance(fVec1, fVec2);
-		} else if (dfunc.equals("rank")) {
-			return rankDistance(fVec1, fVec2);
-		} else if (dfunc.equals("diff")) {
-			return diffDistance(fVec1, fVec2);
-		} else if (dfunc.equals("diff2")) {
-			return diffSquaredDistance(fVec1, fVec2);
-		} else if (dfunc.equals("avg")) {
-			return rankAverage(fVec1, fVec2);
-		} else {
+	/**
+	 * Many-vs-many distances are computed between pairs of tiles of vectors, each holding about this many
+	 * bytes, so that both tiles stay in the cache while all their pairs are computed.
+	 */
+	public static int tileBytes = 64 * 1024;
+
+	/**
+	 * Base class of the distance functions. Many-vs-many distances are computed tile by tile (see
+	 * {@link Distances#tileBytes}), with any per-vector values that a function needs (e.g. the norms for the
+	 * cosine distance) computed once per vector instead of once per pair (see {@link #prepare(double[][])}).
+	 */
+	private static abstract class AbstractDistanceFunction implements DistanceFunction {
+		private final String name;
+
+		AbstractDistanceFunction(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double[] prepare(double[][] vecs) {
+			return null;
+		}
+
+		public double[] prepare(FeatureMatrix matrix) {
+			return null;
+		}
+
+		public double distance(FeatureMatrix matrix, int row1, int row2, double[] values) throws Exception {
+			if (values != null) {
+				return distance(matrix.getRow(row1), matrix.getRow(row2), values[row1], values[row2]);
+			}
+			return distance(matrix.getRow(row1), matrix.getRow(row2));
+		}
+
+		/**
+		 * Computes the distance between the given vectors given their values computed by
+		 * {@link #prepare(double[][])}.
+		 */
+		protected double distance(double[] vec1, double[] vec2, double value1, double value2)
+				throws Exception {
+			return distance(vec1, vec2);
+		}
+
+		public void distances(double[] vec, double[][] vecs, int from, int to, double[] distances)
+				throws Exception {
+			for (int i = from; i < to; i++) {
+				distances[i - from] = distance(vec, vecs[i]);
+			}
+		}
+
+		public void distances(double[][] vecs1, double[][] vecs2, double[] distances) throws Exception {
+			double[] values1 = prepare(vecs1);
+			double[] values2 = prepare(vecs2);
+			int rowTileSize = tileSize(vecs1);
+			int columnTileSize = tileSize(vecs2);
+			for (int rowTile = 0; rowTile < vecs1.length; rowTile += rowTileSize) {
+				int rowTileEnd = Math.min(rowTile + rowTileSize, vecs1.length);
+				for (int columnTile = 0; columnTile < vecs2.length; columnTile += columnTileSize) {
+					int columnTileEnd = Math.min(columnTile + columnTileSize, vecs2.length);
+					for (int i = rowTile; i < rowTileEnd; i++) {
+						int offset = i * vecs2.length;
+						for (int j = columnTile; j < columnTileEnd; j++) {
+							if (values1 != null) {
+								distances[offset + j] = distance(vecs1[i], vecs2[j], values1[i], values2[j]);
+							} else {
+								distances[offset + j] = distance(vecs1[i], vecs2[j]);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		public void pairwiseDistances(double[][] vecs, int rowStart, int rowEnd, double[] distances)
+				throws Exception {
+			pairwiseDistances(vecs, prepare(vecs), rowStart, rowEnd, distances);
+		}
+
+		public void pairwiseDistances(double[][] vecs, double[] values, int rowStart, int rowEnd,
+				double[] distances) throws Exception {
+			int n = vecs.length;
+			int tileSize = tileSize(vecs);
+			for (int rowTile = rowStart; rowTile < rowEnd; rowTile += tileSize) {
+				int rowTileEnd = Math.min(rowTile + tileSize, rowEnd);
+				for (int columnTile = rowTile + 1; columnTile < n; columnTile += tileSize) {
+					int columnTileEnd = Math.min(columnTile + tileSize, n);
+					for (int i = rowTile; i < rowTileEnd && i < columnTileEnd - 1; i++) {
+						// position of pair (i, j) is offset + j
+						int offset = i * (2 * n - i - 1) / 2 - i - 1;
+						for (int j = Math.max(columnTile, i + 1); j < columnTileEnd; j++) {
+							if (values != null) {
+								distances[offset + j] = distance(vecs[i], vecs[j], values[i], values[j]);
+							} else {
+								distances[offset + j] = distance(vecs[i], vecs[j]);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of vectors of the given array that fit in a tile.
+		 */
+		private static int tileSize(double[][] vecs) {
+			int dimension = vecs.length > 0 ? vecs[0].length : 1;
+			return Math.max(1, tileBytes / (8 * Math.max(1, dimension)));
+		}
+	}
+
+	public static final DistanceFunction INNER_PRODUCT = new AbstractDistanceFunction("innerp") {
+		public double distance(double[] vec1, double[] vec2) {
+			return innerProductDistance(vec1, vec2);
+		}
+
+		@Override
+		public double distance(FeatureMatrix matrix, int row1, int row2, double[] values) {
+			return 1 - matrix.innerProduct(row1, row2);
+		}
+	};
+
+	public static final DistanceFunction COSINE = new AbstractDistanceFunction("cosine") {
+		public double distance(double[] vec1, double[] vec2) {
+			return cosineDistance(vec1, vec2);
+		}
+
+		@Override
+		public double[] prepare(double[][] vecs) {
+			double[] norms = new double[vecs.length];
+			for (int i = 0; i < vecs.length; i++) {
+				norms[i] = norm(vecs[i]);
+			}
+			return norms;
+		}
+
+		@Override
+		public double[] prepare(FeatureMatrix matrix) {
+			double[] norms = new double[matrix.getNumRows()];
+			for (int r = 0; r < norms.length; r++) {
+				if (matrix.hasRow(r)) {
+					norms[r] = Math.sqrt(matrix.innerProduct(r, r));
+				}
+			}
+			return norms;
+		}
+
+		@Override
+		protected double distance(double[] vec1, double[] vec2, double norm1, double norm2) {
+			return cosineDistance(vec1, vec2, norm1, norm2);
+		}
+
+		@Override
+		public double distance(FeatureMatrix matrix, int row1, int row2, double[] norms) {
+			return 1 - (matrix.innerProduct(row1, row2) / (norms[row1] * norms[row2]));
+		}
+
+		@Override
+		public void distances(double[] vec, double[][] vecs, int from, int to, double[] distances) {
+			// the norm of vec is computed once for all vectors
+			double norm = norm(vec);
+			for (int i = from; i < to; i++) {
+				distances[i - from] = cosineDistance(vec, vecs[i], norm, norm(vecs[i]));
+			}
+		}
+	};
+
+	public static final DistanceFunction EUCLIDEAN = new AbstractDistanceFunction("euclidean") {
+		public double distance(double[] vec1, double[] vec2) {
+			return euclideanDistance(vec1, vec2);
+		}
+
+		@Override
+		public double distance(FeatureMatrix matrix, int row1, int row2, double[] values) {
+			return Math.sqrt(matrix.euclideanDistanceSquared(row1, row2));
+		}
+	};
+
+	public static final DistanceFunction GEO = new AbstractDistanceFunction("geo") {
+		public double distance(double[] vec1, double[] vec2) throws Exception {
+			return geoDistance(vec1, vec2);
+		}
+	};
+
+	public static final DistanceFunction RANK = new AbstractDistanceFunction("rank") {
+		public double distance(double[] vec1, double[] vec2) {
+			return rankDistance(vec1, vec2);
+		}
+	};
+
+	public static final DistanceFunction DIFF = new AbstractDistanceFunction("diff") {
+		public double distance(double[] vec1, double[] vec2) {
+			return diffDistance(vec1, vec2);
+		}
+	};
+
+	public static final DistanceFunction DIFF_SQUARED = new AbstractDistanceFunction("diff2") {
+		public double distance(double[] vec1, double[] vec2) {
+			return diffSquaredDistance(vec1, vec2);
+		}
+	};
+
+	public static final DistanceFunction AVERAGE = new AbstractDistanceFunction("avg") {
+		public double distance(double[] vec1, double[] vec2) {
+			return rankAverage(vec1, vec2);
+		}
+	};
+
+	/** maps the name of each distance function to its implementation */
+	private static final HashMap<String, DistanceFunction> distanceFunctions =
+			new HashMap<String, DistanceFunction>();
+	static {
+		for (DistanceFunction function : new DistanceFunction[] { INNER_PRODUCT, COSINE, EUCLIDEAN, GEO, RANK,
+				DIFF, DIFF_SQUARED, AVERAGE }) {
+			distanceFunctions.put(function.getName(), function);
+		}
+	}
+
+	/**
+	 * Returns the distance function with the given name.
+	 * 
+	 * @param dfunc
+	 *            One of innerp, cosine, euclidean, geo, rank, diff, diff2, avg
+	 * @return
+	 * @throws Exception
+	 *             If there is no distance function with the given name
+	 */
+	public static DistanceFunction getDistanceFunction(String dfunc) throws Exception {
+		DistanceFunction function = distanceFunctions.get(dfunc);
+		if (function == null) {
 			throw new Exception("Unknown distance function!");
 		}
+		return function;
+	}
+
+	/**
+	 * Computes the distance between the given vectors with the distance function of the given name. When many
+	 * distances are computed with the same function, it should be obtained once with
+	 * {@link #getDistanceFunction(String)} instead.
+	 * 
+	 * @param fVec1
+	 * @param fVec2
+	 * @param dfunc
+	 * @return
+	 * @throws Exception
+	 */
+	public static double computeDistance(double[] fVec1, double[] fVec2, String dfunc) throws Exception {
+		return getDistanceFunction(dfunc).distance(fVec1, fVec2);
 	}
 }
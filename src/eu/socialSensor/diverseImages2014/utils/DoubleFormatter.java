@@ -0,0 +1,277 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles as ASCII text directly into a byte array, without creating intermediate Strings. The
+ * decimal digits are the shortest ones that uniquely identify the double (i.e. they parse back to the same
+ * double) and, among those, the closest to it, computed with the Schubfach algorithm of R. Giulietti ("The
+ * Schubfach way to render doubles", 2020). The digits are laid out as {@link Double#toString(double)} does,
+ * e.g. 0.001, 1234567.0, 1.0E7, 1.0E-4, -0.0, NaN, Infinity. The output is the same as that of
+ * Double.toString of Java 19 and later, which uses the same algorithm. Earlier versions occasionally print a
+ * longer representation of the same double, e.g. 1.9999999999999998E23 instead of 2.0E23.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class DoubleFormatter {
+
+	/** the maximum length of a formatted double, e.g. -2.2250738585072014E-308 */
+	public static final int maxLength = 24;
+
+	/** the precision of a double in bits */
+	private static final int P = 53;
+
+	/** the exponent of the smallest subnormal double */
+	private static final int Q_MIN = -1074;
+
+	/** the hidden bit of normal doubles */
+	private static final long C_MIN = 1L << (P - 1);
+
+	/** subnormal significands below this are scaled by 10 to get at least two digits */
+	private static final long C_TINY = 3;
+
+	/** the range of decimal exponents k for which 10^-k is tabulated */
+	private static final int K_MIN = -324, K_MAX = 292;
+
+	private static final long MASK_63 = (1L << 63) - 1;
+
+	/**
+	 * For each k in [K_MIN, K_MAX], the high (g1) and low (g0) 63 bits of g = floor(10^-k 2^-r) + 1, where r
+	 * is such that 2^125 <= 10^-k 2^-r < 2^126.
+	 */
+	private static final long[] g1 = new long[K_MAX - K_MIN + 1];
+	private static final long[] g0 = new long[K_MAX - K_MIN + 1];
+
+	/** 10^i for i in [0, 18] */
+	private static final long[] pow10 = new long[19];
+
+	static {
+		for (int k = K_MIN; k <= K_MAX; k++) {
+			BigInteger g;
+			if (k <= 0) { // 10^-k is an integer
+				BigInteger p = BigInteger.TEN.pow(-k);
+				int r = p.bitLength() - 126;
+				g = (r >= 0 ? p.shiftRight(r) : p.shiftLeft(-r)).add(BigInteger.ONE);
+			} else { // 10^-k 2^-r = 2^-r / 10^k
+				BigInteger p = BigInteger.TEN.pow(k);
+				g = BigInteger.ONE.shiftLeft(125 + p.bitLength()).divide(p).add(BigInteger.ONE);
+			}
+			g1[k - K_MIN] = g.shiftRight(63).longValue();
+			g0[k - K_MIN] = g.longValue() & MASK_63;
+		}
+		pow10[0] = 1;
+		for (int i = 1; i < pow10.length; i++) {
+			pow10[i] = pow10[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Formats the given double into the given array.
+	 *
+	 * @param value
+	 * @param bytes
+	 * @param offset
+	 *            The position where the text starts, followed by at least {@link #maxLength} bytes
+	 * @return The position after the end of the text
+	 */
+	public static int format(double value, byte[] bytes, int offset) {
+		long bits = Double.doubleToRawLongBits(value);
+		long t = bits & (C_MIN - 1);
+		int bq = (int) (bits >>> (P - 1)) & 0x7FF;
+		if (bq == 0x7FF) {
+			return putAscii(t != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity", bytes, offset);
+		}
+		if (bits < 0) {
+			bytes[offset++] = '-';
+		}
+		if (bq != 0) { // normal
+			int mq = -Q_MIN + 1 - bq;
+			long c = C_MIN | t;
+			if (0 < mq && mq < P) { // integers are written exactly
+				long f = c >> mq;
+				if (f << mq == c) {
+					return putDecimal(f, 0, bytes, offset);
+				}
+			}
+			return toDecimal(-mq, c, 0, bytes, offset);
+		}
+		if (t != 0) { // subnormal
+			return t < C_TINY ? toDecimal(Q_MIN, 10 * t, -1, bytes, offset) : toDecimal(Q_MIN, t, 0, bytes,
+					offset);
+		}
+		return putAscii("0.0", bytes, offset);
+	}
+
+	/**
+	 * Formats the given double as a String, for callers that do not write into a byte array.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static String toString(double value) {
+		byte[] bytes = new byte[maxLength];
+		int end = format(value, bytes, 0);
+		char[] chars = new char[end];
+		for (int i = 0; i < end; i++) {
+			chars[i] = (char) bytes[i];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Formats the shortest decimal in the rounding interval of the positive double c 2^q, see section 9 of
+	 * the Schubfach paper. The decimal is scaled by 10^dk.
+	 */
+	private static int toDecimal(int q, long c, int dk, byte[] bytes, int offset) {
+		int out = (int) c & 1;
+		long cb = c << 2;
+		long cbr = cb + 2;
+		long cbl;
+		int k;
+		if (c != C_MIN | q == Q_MIN) {
+			cbl = cb - 2;
+			k = flog10pow2(q);
+		} else { // the interval is asymmetric at powers of 2
+			cbl = cb - 1;
+			k = flog10threeQuartersPow2(q);
+		}
+		int h = q + flog2pow10(-k) + 2;
+		long gHigh = g1[k - K_MIN];
+		long gLow = g0[k - K_MIN];
+		long vb = roundToOdd(gHigh, gLow, cb << h);
+		long vbl = roundToOdd(gHigh, gLow, cbl << h);
+		long vbr = roundToOdd(gHigh, gLow, cbr << h);
+
+		long s = vb >> 2;
+		if (s >= 100) {
+			// try with one digit less
+			long sp10 = s / 10 * 10;
+			long tp10 = sp10 + 10;
+			boolean upin = vbl + out <= sp10 << 2;
+			boolean wpin = (tp10 << 2) + out <= vbr;
+			if (upin != wpin) {
+				return putDecimal(upin ? sp10 : tp10, k, bytes, offset);
+			}
+		}
+		long t = s + 1;
+		boolean uin = vbl + out <= s << 2;
+		boolean win = (t << 2) + out <= vbr;
+		if (uin != win) {
+			return putDecimal(uin ? s : t, k + dk, bytes, offset);
+		}
+		// both s and t are in the interval, pick the closest one, or the even one on ties
+		long cmp = vb - (s + t << 1);
+		return putDecimal(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, bytes, offset);
+	}
+
+	/**
+	 * Returns g cp / 2^127 rounded to odd, where g = gHigh 2^63 + gLow.
+	 */
+	private static long roundToOdd(long gHigh, long gLow, long cp) {
+		long x1 = multiplyHigh(gLow, cp);
+		long y0 = gHigh * cp;
+		long y1 = multiplyHigh(gHigh, cp);
+		long z = (y0 >>> 1) + x1;
+		long vbp = y1 + (z >>> 63);
+		return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+	}
+
+	/**
+	 * Returns the high 64 bits of the 128-bit product of two non-negative longs.
+	 */
+	private static long multiplyHigh(long x, long y) {
+		long x1 = x >>> 32, x0 = x & 0xFFFFFFFFL;
+		long y1 = y >>> 32, y0 = y & 0xFFFFFFFFL;
+		long p01 = x0 * y1;
+		long middle = x1 * y0 + (x0 * y0 >>> 32) + (p01 & 0xFFFFFFFFL);
+		return x1 * y1 + (middle >>> 32) + (p01 >>> 32);
+	}
+
+	/** floor(log10(2^e)) */
+	private static int flog10pow2(int e) {
+		return (int) (e * 661971961083L >> 41);
+	}
+
+	/** floor(log10(3/4 2^e)) */
+	private static int flog10threeQuartersPow2(int e) {
+		return (int) (e * 661971961083L - 274743187321L >> 41);
+	}
+
+	/** floor(log2(10^e)) */
+	private static int flog2pow10(int e) {
+		return (int) (e * 913124641741L >> 38);
+	}
+
+	/**
+	 * Writes the positive decimal f 10^e in the layout of Double.toString: plain if 10^-3 <= f 10^e < 10^7,
+	 * in computerized scientific notation otherwise.
+	 */
+	private static int putDecimal(long f, int e, byte[] bytes, int offset) {
+		while (f % 10 == 0) {
+			f /= 10;
+			e++;
+		}
+		int numDigits = 1;
+		while (numDigits < pow10.length && f >= pow10[numDigits]) {
+			numDigits++;
+		}
+		// f 10^e = 0.d1d2...dn 10^pointPosition
+		int pointPosition = numDigits + e;
+		if (0 < pointPosition && pointPosition <= 7) {
+			if (numDigits <= pointPosition) {
+				offset = putDigits(f, numDigits, bytes, offset);
+				for (int i = numDigits; i < pointPosition; i++) {
+					bytes[offset++] = '0';
+				}
+				bytes[offset++] = '.';
+				bytes[offset++] = '0';
+			} else {
+				offset = putDigits(f / pow10[numDigits - pointPosition], pointPosition, bytes, offset);
+				bytes[offset++] = '.';
+				offset = putDigits(f % pow10[numDigits - pointPosition], numDigits - pointPosition, bytes,
+						offset);
+			}
+		} else if (-3 < pointPosition && pointPosition <= 0) {
+			bytes[offset++] = '0';
+			bytes[offset++] = '.';
+			for (int i = pointPosition; i < 0; i++) {
+				bytes[offset++] = '0';
+			}
+			offset = putDigits(f, numDigits, bytes, offset);
+		} else {
+			bytes[offset++] = (byte) ('0' + f / pow10[numDigits - 1]);
+			bytes[offset++] = '.';
+			if (numDigits > 1) {
+				offset = putDigits(f % pow10[numDigits - 1], numDigits - 1, bytes, offset);
+			} else {
+				bytes[offset++] = '0';
+			}
+			bytes[offset++] = 'E';
+			int exponent = pointPosition - 1;
+			if (exponent < 0) {
+				bytes[offset++] = '-';
+				exponent = -exponent;
+			}
+			offset = putDigits(exponent, exponent >= 100 ? 3 : exponent >= 10 ? 2 : 1, bytes, offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * Writes the given number of digits of f, padded with leading zeros.
+	 */
+	private static int putDigits(long f, int numDigits, byte[] bytes, int offset) {
+		for (int i = offset + numDigits - 1; i >= offset; i--) {
+			bytes[i] = (byte) ('0' + f % 10);
+			f /= 10;
+		}
+		return offset + numDigits;
+	}
+
+	private static int putAscii(String s, byte[] bytes, int offset) {
+		for (int i = 0; i < s.length(); i++) {
+			bytes[offset++] = (byte) s.charAt(i);
+		}
+		return offset;
+	}
+}
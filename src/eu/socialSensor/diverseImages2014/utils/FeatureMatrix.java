@@ -0,0 +1,240 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Holds the feature vectors of all images of a single location for a single feature type in one contiguous
+ * row-major matrix, i.e. row r holds the vector of the image at position r of the location's image list. All
+ * vectors have the same dimension. Values are stored in single or double precision, either on the heap or
+ * in a direct (off-heap) buffer, so that large features do not create one array per image.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class FeatureMatrix {
+
+	private int numRows;
+
+	private int dimension;
+
+	/** row-major values (null if stored in single precision) */
+	private DoubleBuffer values;
+
+	/** row-major values in single precision (null if stored in double precision) */
+	private FloatBuffer floatValues;
+
+	/** whether a vector has been set for each row, images without features have no vector */
+	private boolean[] present;
+
+	/**
+	 * Creates an empty matrix.
+	 *
+	 * @param numRows
+	 * @param dimension
+	 * @param singlePrecision
+	 *            If true, values are stored as floats, otherwise as doubles
+	 * @param offHeap
+	 *            If true, values are stored in a direct buffer outside the Java heap
+	 * @throws Exception
+	 */
+	public FeatureMatrix(int numRows, int dimension, boolean singlePrecision, boolean offHeap)
+			throws Exception {
+		this.numRows = numRows;
+		this.dimension = dimension;
+		present = new boolean[numRows];
+		long numValues = (long) numRows * dimension;
+		if (numValues * (singlePrecision ? 4 : 8) > Integer.MAX_VALUE) {
+			throw new Exception("Feature matrix too large: " + numRows + "x" + dimension);
+		}
+		if (offHeap) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) numValues * (singlePrecision ? 4 : 8));
+			buffer.order(ByteOrder.nativeOrder());
+			if (singlePrecision) {
+				floatValues = buffer.asFloatBuffer();
+			} else {
+				values = buffer.asDoubleBuffer();
+			}
+		} else {
+			if (singlePrecision) {
+				floatValues = FloatBuffer.wrap(new float[(int) numValues]);
+			} else {
+				values = DoubleBuffer.wrap(new double[(int) numValues]);
+			}
+		}
+	}
+
+	/**
+	 * Creates a matrix on top of an existing row-major buffer, e.g. a view of a memory-mapped file.
+	 *
+	 * @param dimension
+	 * @param values
+	 * @param present
+	 *            Whether each row holds a vector
+	 * @throws Exception
+	 */
+	public FeatureMatrix(int dimension, DoubleBuffer values, boolean[] present) throws Exception {
+		this.numRows = present.length;
+		this.dimension = dimension;
+		if (values.capacity() != (long) numRows * dimension) {
+			throw new Exception("Wrong number of feature values!");
+		}
+		this.values = values;
+		this.present = present;
+	}
+
+	/**
+	 * Same as {@link #FeatureMatrix(int, DoubleBuffer, boolean[])} for values stored in single precision.
+	 *
+	 * @param dimension
+	 * @param floatValues
+	 * @param present
+	 * @throws Exception
+	 */
+	public FeatureMatrix(int dimension, FloatBuffer floatValues, boolean[] present) throws Exception {
+		this.numRows = present.length;
+		this.dimension = dimension;
+		if (floatValues.capacity() != (long) numRows * dimension) {
+			throw new Exception("Wrong number of feature values!");
+		}
+		this.floatValues = floatValues;
+		this.present = present;
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public boolean isSinglePrecision() {
+		return floatValues != null;
+	}
+
+	public boolean hasRow(int row) {
+		return present[row];
+	}
+
+	public double get(int row, int column) {
+		int offset = row * dimension + column;
+		return floatValues != null ? floatValues.get(offset) : values.get(offset);
+	}
+
+	/**
+	 * Copies the vector of the given row into the given array.
+	 *
+	 * @param row
+	 * @param vector
+	 *            An array of length at least {@link #getDimension()}
+	 */
+	public void getRow(int row, double[] vector) {
+		getRow(row, vector, 0);
+	}
+
+	/**
+	 * Copies the vector of the given row into the given array, starting at the given position.
+	 *
+	 * @param row
+	 * @param vector
+	 *            An array of length at least vectorOffset + {@link #getDimension()}
+	 * @param vectorOffset
+	 */
+	public void getRow(int row, double[] vector, int vectorOffset) {
+		int offset = row * dimension;
+		if (floatValues != null) {
+			for (int c = 0; c < dimension; c++) {
+				vector[vectorOffset + c] = floatValues.get(offset + c);
+			}
+		} else {
+			for (int c = 0; c < dimension; c++) {
+				vector[vectorOffset + c] = values.get(offset + c);
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of the vector of the given row or null if the row holds no vector.
+	 *
+	 * @param row
+	 * @return
+	 */
+	public double[] getRow(int row) {
+		if (!present[row]) {
+			return null;
+		}
+		double[] vector = new double[dimension];
+		getRow(row, vector);
+		return vector;
+	}
+
+	/**
+	 * Returns the inner product of the vectors of the given rows, reading them in place. The elements are
+	 * summed in the same order as {@link Distances#innerProduct(double[], double[])} with scalar loops.
+	 *
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	public double innerProduct(int row1, int row2) {
+		int offset1 = row1 * dimension;
+		int offset2 = row2 * dimension;
+		double innerp = 0;
+		if (floatValues != null) {
+			for (int c = 0; c < dimension; c++) {
+				innerp += (double) floatValues.get(offset1 + c) * floatValues.get(offset2 + c);
+			}
+		} else {
+			for (int c = 0; c < dimension; c++) {
+				innerp += values.get(offset1 + c) * values.get(offset2 + c);
+			}
+		}
+		return innerp;
+	}
+
+	/**
+	 * Returns the squared Euclidean distance between the vectors of the given rows, reading them in place.
+	 *
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	public double euclideanDistanceSquared(int row1, int row2) {
+		int offset1 = row1 * dimension;
+		int offset2 = row2 * dimension;
+		double distance = 0;
+		if (floatValues != null) {
+			for (int c = 0; c < dimension; c++) {
+				double diff = (double) floatValues.get(offset1 + c) - floatValues.get(offset2 + c);
+				distance += diff * diff;
+			}
+		} else {
+			for (int c = 0; c < dimension; c++) {
+				double diff = values.get(offset1 + c) - values.get(offset2 + c);
+				distance += diff * diff;
+			}
+		}
+		return distance;
+	}
+
+	public void setRow(int row, double[] vector) throws Exception {
+		if (vector.length != dimension) {
+			throw new Exception("Feature vector of length " + vector.length + " in matrix of dimension "
+					+ dimension + "!");
+		}
+		int offset = row * dimension;
+		if (floatValues != null) {
+			for (int c = 0; c < dimension; c++) {
+				floatValues.put(offset + c, (float) vector[c]);
+			}
+		} else {
+			for (int c = 0; c < dimension; c++) {
+				values.put(offset + c, vector[c]);
+			}
+		}
+		present[row] = true;
+	}
+
+}
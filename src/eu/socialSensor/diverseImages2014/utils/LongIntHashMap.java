@@ -0,0 +1,116 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open addressing hash map from primitive long keys to primitive int values. Used to map image ids
+ * to array positions without boxing.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class LongIntHashMap {
+
+	/** the value returned by {@link #get(long)} when a key is not present */
+	public static final int NO_VALUE = -1;
+
+	private long[] keys;
+
+	private int[] values;
+
+	/** marks which slots of the tables are occupied */
+	private boolean[] used;
+
+	private int size;
+
+	private int mask;
+
+	/**
+	 * Creates a map that can hold the given number of keys without rehashing.
+	 *
+	 * @param expectedSize
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Returns the value associated with the given key or {@link #NO_VALUE} if the key is not present.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int get(long key) {
+		int i = slot(key);
+		while (used[i]) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return NO_VALUE;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != NO_VALUE;
+	}
+
+	/**
+	 * Associates the given value with the given key, replacing any previous value.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(long key, int value) {
+		if ((size + 1) * 2 > keys.length) {
+			rehash();
+		}
+		int i = slot(key);
+		while (used[i]) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		used[i] = true;
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+}
@@ -11,63 +11,79 @@ import java.util.Arrays;
 public class Normalizations {
 
 	/**
-	 * This method applies L2 normalization on a given array of doubles. The passed vector is modified by the
-	 * method.
+	 * This method applies L2 normalization on the elements [from, to) of a given array of doubles. The passed
+	 * vector is modified by the method.
 	 * 
 	 * @param vector
 	 *            the original vector
-	 * @return the L2 normalized vector
+	 * @param from
+	 * @param to
 	 */
-	private static double[] normalizeL2(double[] vector) {
+	private static void normalizeL2(double[] vector, int from, int to) {
 		// compute vector 2-norm
 		double norm2 = 0;
-		for (int i = 0; i < vector.length; i++) {
+		for (int i = from; i < to; i++) {
 			norm2 += vector[i] * vector[i];
 		}
 		norm2 = (double) Math.sqrt(norm2);
 
 		if (norm2 == 0) {
-			Arrays.fill(vector, 1);
+			Arrays.fill(vector, from, to, 1);
 		} else {
-			for (int i = 0; i < vector.length; i++) {
+			for (int i = from; i < to; i++) {
 				vector[i] = vector[i] / norm2;
 			}
 		}
-		return vector;
 	}
 
 	/**
-	 * This method applies L1 normalization on a given array of doubles. The passed vector is modified by the
-	 * method.
+	 * This method applies L1 normalization on the elements [from, to) of a given array of doubles. The passed
+	 * vector is modified by the method.
 	 * 
 	 * @param vector
 	 *            the original vector
-	 * @return the L1 normalized vector
+	 * @param from
+	 * @param to
 	 */
-	private static double[] normalizeL1(double[] vector) {
+	private static void normalizeL1(double[] vector, int from, int to) {
 		// compute vector 1-norm
 		double norm1 = 0;
-		for (int i = 0; i < vector.length; i++) {
+		for (int i = from; i < to; i++) {
 			norm1 += Math.abs(vector[i]);
 		}
 
 		if (norm1 == 0) {
-			Arrays.fill(vector, 1.0 / vector.length);
+			Arrays.fill(vector, from, to, 1.0 / (to - from));
 		} else {
-			for (int i = 0; i < vector.length; i++) {
+			for (int i = from; i < to; i++) {
 				vector[i] = vector[i] / norm1;
 			}
 		}
-		return vector;
 	}
 
 	public static double[] normalize(double[] vector, String normalization) throws Exception {
+		normalize(vector, 0, vector.length, normalization);
+		return vector;
+	}
+
+	/**
+	 * Applies the given normalization on the elements [from, to) of the given vector, in place, as if they
+	 * were a separate vector.
+	 * 
+	 * @param vector
+	 * @param from
+	 * @param to
+	 * @param normalization
+	 *            "no", "l2" or "l1"
+	 * @throws Exception
+	 */
+	public static void normalize(double[] vector, int from, int to, String normalization) throws Exception {
 		if (normalization.equals("no")) {
-			return vector;
+			return;
 		} else if (normalization.equals("l2")) {
-			return normalizeL2(vector);
+			normalizeL2(vector, from, to);
 		} else if (normalization.equals("l1")) {
-			return normalizeL1(vector);
+			normalizeL1(vector, from, to);
 		} else {
 			throw new Exception("Unknown normalization type!");
 		}
@@ -0,0 +1,254 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds all pairwise distances between the images of a single location for a single feature type. Image
+ * ids are mapped to row indices and the distances are stored in a packed upper-triangular array, i.e. only
+ * the n*(n-1)/2 distinct pairs are stored. Distances that have not been set are NaN.<br>
+ * The packed array is either held on the heap or is a view of a memory-mapped binary distance file, in
+ * which case it can be stored in single or double precision.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class PairwiseDistanceMatrix {
+
+	/** the image ids of the location, in row order */
+	private long[] imageIds;
+
+	/** maps an image id to its row index */
+	private LongIntHashMap idToIndex;
+
+	/** packed upper-triangular distances, row by row (null if stored in single precision) */
+	private DoubleBuffer distances;
+
+	/** packed upper-triangular distances in single precision (null if stored in double precision) */
+	private FloatBuffer floatDistances;
+
+	/**
+	 * Creates an empty matrix for the given image ids. Row i of the matrix corresponds to imageIds[i].
+	 *
+	 * @param imageIds
+	 * @throws Exception
+	 */
+	public PairwiseDistanceMatrix(long[] imageIds) throws Exception {
+		indexImageIds(imageIds);
+		double[] values = new double[numPairs(imageIds.length)];
+		Arrays.fill(values, Double.NaN);
+		distances = DoubleBuffer.wrap(values);
+	}
+
+	/**
+	 * Creates a matrix on top of an existing packed upper-triangular distance buffer, e.g. a view of a
+	 * memory-mapped file.
+	 *
+	 * @param imageIds
+	 * @param distances
+	 * @throws Exception
+	 */
+	public PairwiseDistanceMatrix(long[] imageIds, DoubleBuffer distances) throws Exception {
+		indexImageIds(imageIds);
+		if (distances.capacity() != numPairs(imageIds.length)) {
+			throw new Exception("Wrong number of distances!");
+		}
+		this.distances = distances;
+	}
+
+	/**
+	 * Same as {@link #PairwiseDistanceMatrix(long[], DoubleBuffer)} for distances stored in single
+	 * precision.
+	 *
+	 * @param imageIds
+	 * @param floatDistances
+	 * @throws Exception
+	 */
+	public PairwiseDistanceMatrix(long[] imageIds, FloatBuffer floatDistances) throws Exception {
+		indexImageIds(imageIds);
+		if (floatDistances.capacity() != numPairs(imageIds.length)) {
+			throw new Exception("Wrong number of distances!");
+		}
+		this.floatDistances = floatDistances;
+	}
+
+	private void indexImageIds(long[] imageIds) throws Exception {
+		this.imageIds = imageIds;
+		idToIndex = new LongIntHashMap(imageIds.length);
+		for (int i = 0; i < imageIds.length; i++) {
+			if (idToIndex.containsKey(imageIds[i])) {
+				throw new Exception("Duplicate image id: " + imageIds[i]);
+			}
+			idToIndex.put(imageIds[i], i);
+		}
+	}
+
+	/**
+	 * Returns the number of distinct pairs of n images.
+	 *
+	 * @param n
+	 * @return
+	 */
+	public static int numPairs(int n) {
+		return n * (n - 1) / 2;
+	}
+
+	/**
+	 * Returns the position of pair (i,j) in the packed array. Requires i < j.
+	 */
+	private int offset(int i, int j) {
+		return i * (2 * imageIds.length - i - 1) / 2 + (j - i - 1);
+	}
+
+	/**
+	 * Returns the row index of the given image id or -1 if the image does not belong to this matrix.
+	 *
+	 * @param imageId
+	 * @return
+	 */
+	public int indexOf(long imageId) {
+		return idToIndex.get(imageId);
+	}
+
+	public long getImageId(int index) {
+		return imageIds[index];
+	}
+
+	public long[] getImageIds() {
+		return imageIds;
+	}
+
+	public int size() {
+		return imageIds.length;
+	}
+
+	/**
+	 * Returns the number of bytes taken by the distances, either on the heap or in a memory-mapped file.
+	 *
+	 * @return
+	 */
+	public long getNumBytes() {
+		return (long) numPairs(imageIds.length) * (distances != null ? 8 : 4);
+	}
+
+	/**
+	 * Returns the distance between the images at rows i and j. The distance of an image from itself is 0.
+	 *
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	public double get(int i, int j) {
+		if (i == j) {
+			return 0;
+		}
+		return getPacked(i < j ? offset(i, j) : offset(j, i));
+	}
+
+	public void set(int i, int j, double distance) {
+		if (i == j) {
+			return;
+		}
+		int k = i < j ? offset(i, j) : offset(j, i);
+		if (distances != null) {
+			distances.put(k, distance);
+		} else {
+			floatDistances.put(k, (float) distance);
+		}
+	}
+
+	/**
+	 * Returns the k-th distance of the packed array, i.e. pairs are enumerated as (0,1), (0,2), ..., (0,n-1),
+	 * (1,2), ...
+	 *
+	 * @param k
+	 * @return
+	 */
+	public double getPacked(int k) {
+		if (distances != null) {
+			return distances.get(k);
+		} else {
+			return floatDistances.get(k);
+		}
+	}
+
+	/**
+	 * Returns the distance between the images with the given ids.
+	 *
+	 * @param id1
+	 * @param id2
+	 * @return
+	 * @throws Exception
+	 */
+	public double getById(long id1, long id2) throws Exception {
+		int i = indexOf(id1);
+		int j = indexOf(id2);
+		if (i < 0 || j < 0) {
+			throw new Exception("Unknown image id!");
+		}
+		return get(i, j);
+	}
+
+	public void setById(long id1, long id2, double distance) throws Exception {
+		int i = indexOf(id1);
+		int j = indexOf(id2);
+		if (i < 0 || j < 0) {
+			throw new Exception("Unknown image id!");
+		}
+		set(i, j, distance);
+	}
+
+	/**
+	 * Returns true if all pairwise distances have been set.
+	 *
+	 * @return
+	 */
+	public boolean isComplete() {
+		int numPairs = numPairs(imageIds.length);
+		for (int k = 0; k < numPairs; k++) {
+			if (Double.isNaN(getPacked(k))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a new matrix holding the weighted average of the distances of the given matrices, which must
+	 * have the same image ids in the same order. A distance that has not been set in any of the matrices is
+	 * not set in the average either.
+	 *
+	 * @param matrices
+	 * @param weights
+	 *            The weight of each matrix
+	 * @return
+	 * @throws Exception
+	 */
+	public static PairwiseDistanceMatrix weightedAverage(List<PairwiseDistanceMatrix> matrices,
+			double[] weights) throws Exception {
+		if (matrices.size() != weights.length) {
+			throw new Exception("Wrong number of weights!");
+		}
+		long[] imageIds = matrices.get(0).getImageIds();
+		for (PairwiseDistanceMatrix matrix : matrices) {
+			if (!Arrays.equals(matrix.getImageIds(), imageIds)) {
+				throw new Exception("Distance matrices of different images!");
+			}
+		}
+		double sumOfWeights = 0;
+		for (double weight : weights) {
+			sumOfWeights += weight;
+		}
+		double[] values = new double[numPairs(imageIds.length)];
+		for (int k = 0; k < values.length; k++) {
+			double sum = 0;
+			for (int i = 0; i < weights.length; i++) {
+				sum += weights[i] * matrices.get(i).getPacked(k);
+			}
+			values[k] = sum / sumOfWeights;
+		}
+		return new PairwiseDistanceMatrix(imageIds, DoubleBuffer.wrap(values));
+	}
+
+}
@@ -0,0 +1,216 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A channel that gzip-compresses the bytes written to it and writes them to another channel. The bytes are
+ * split in blocks of a fixed size and each block is compressed independently into a complete gzip member, so
+ * that the blocks can be compressed concurrently by a pool of threads. The members are written in the order
+ * of the blocks and their concatenation is a valid gzip file that is decompressed as a whole by gunzip and
+ * {@link GZIPInputStream}. Compressing the blocks independently costs a few bytes per block, which is
+ * negligible for blocks much larger than the 32KB window of deflate. The fastest compression level is used
+ * by default, which on ARFF text is several times faster than the default level of gzip for a slightly
+ * larger file.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class ParallelGzipChannel implements WritableByteChannel {
+
+	/**
+	 * A GZIPOutputStream with a given compression level.
+	 */
+	private static class LeveledGzipOutputStream extends GZIPOutputStream {
+		private LeveledGzipOutputStream(ByteArrayOutputStream out, int level) throws IOException {
+			super(out, 1 << 16);
+			def.setLevel(level);
+		}
+	}
+
+	/** the default size of the blocks in bytes */
+	public static final int defaultBlockSize = 1 << 20;
+
+	/** the default compression level */
+	public static final int defaultLevel = Deflater.BEST_SPEED;
+
+	private WritableByteChannel channel;
+
+	private int blockSize;
+
+	private int level;
+
+	/** the block being filled */
+	private byte[] block;
+
+	private int blockLength;
+
+	/** null when the blocks are compressed by the writing thread */
+	private ExecutorService executor;
+
+	/** the blocks being compressed, in order */
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	/** the maximum number of blocks being compressed, bounds the memory used */
+	private int maxPending;
+
+	private boolean open = true;
+
+	/**
+	 * @param channel
+	 * @param numThreads
+	 *            Number of blocks that are compressed concurrently, 1 compresses them in the writing thread
+	 */
+	public ParallelGzipChannel(WritableByteChannel channel, int numThreads) {
+		this(channel, numThreads, defaultBlockSize, defaultLevel);
+	}
+
+	/**
+	 * @param channel
+	 * @param numThreads
+	 *            Number of blocks that are compressed concurrently, 1 compresses them in the writing thread
+	 * @param blockSize
+	 *            The number of uncompressed bytes in each gzip member
+	 * @param level
+	 *            The compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+	 */
+	public ParallelGzipChannel(WritableByteChannel channel, int numThreads, int blockSize, int level) {
+		this.channel = channel;
+		this.blockSize = blockSize;
+		this.level = level;
+		block = new byte[blockSize];
+		if (numThreads > 1) {
+			executor = Executors.newFixedThreadPool(numThreads);
+			maxPending = 2 * numThreads;
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		int numBytes = src.remaining();
+		while (src.hasRemaining()) {
+			int length = Math.min(src.remaining(), blockSize - blockLength);
+			src.get(block, blockLength, length);
+			blockLength += length;
+			if (blockLength == blockSize) {
+				compressBlock();
+			}
+		}
+		return numBytes;
+	}
+
+	/**
+	 * Compresses the bytes written so far and writes all compressed blocks to the underlying channel. The
+	 * underlying channel can then be written to directly, e.g. to append other gzip members.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		compressBlock();
+		while (!pending.isEmpty()) {
+			writeMember(getResult(pending.poll()));
+		}
+	}
+
+	private void compressBlock() throws IOException {
+		if (blockLength == 0) {
+			return;
+		}
+		if (executor == null) {
+			writeMember(compress(block, blockLength));
+		} else {
+			final byte[] bytes = block;
+			final int length = blockLength;
+			pending.add(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return compress(bytes, length);
+				}
+			}));
+			block = new byte[blockSize];
+			while (pending.size() > maxPending) {
+				writeMember(getResult(pending.poll()));
+			}
+		}
+		blockLength = 0;
+	}
+
+	private byte[] compress(byte[] bytes, int length) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4);
+		GZIPOutputStream gzip = new LeveledGzipOutputStream(compressed, level);
+		gzip.write(bytes, 0, length);
+		gzip.close();
+		return compressed.toByteArray();
+	}
+
+	private void writeMember(byte[] member) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(member);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Waits for the compression of a block and rethrows the exception that it may have thrown.
+	 */
+	private static byte[] getResult(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Returns the channel that the compressed bytes are written to.
+	 *
+	 * @return
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Writes the remaining compressed blocks and closes the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		try {
+			finish();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * The images of a single location ranked by relevance score, stored as primitive arrays of image ids and
+ * scores. A compact alternative to a list of {@link MediImageComparator2014} objects, where image ids are
+ * kept as Strings and have to be parsed again whenever they are used.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class RankedImageList {
+
+	private int locationId;
+
+	private long[] imageIds;
+
+	private double[] scores;
+
+	private int size;
+
+	/**
+	 * Creates an empty list.
+	 *
+	 * @param locationId
+	 * @param initialCapacity
+	 */
+	public RankedImageList(int locationId, int initialCapacity) {
+		this.locationId = locationId;
+		imageIds = new long[Math.max(1, initialCapacity)];
+		scores = new double[imageIds.length];
+	}
+
+	/**
+	 * Creates a list with the images of the given list, in the same order.
+	 *
+	 * @param images
+	 *            A non-empty list of images of the same location
+	 * @return
+	 */
+	public static RankedImageList fromImageComparators(ArrayList<MediImageComparator2014> images) {
+		RankedImageList list = new RankedImageList(images.get(0).getLocationId(), images.size());
+		for (MediImageComparator2014 image : images) {
+			list.add(Long.parseLong(image.getImageId()), image.getRelevanceScore());
+		}
+		return list;
+	}
+
+	/**
+	 * Appends an image at the end of the list.
+	 *
+	 * @param imageId
+	 * @param score
+	 */
+	public void add(long imageId, double score) {
+		if (size == imageIds.length) {
+			imageIds = Arrays.copyOf(imageIds, size * 2);
+			scores = Arrays.copyOf(scores, size * 2);
+		}
+		imageIds[size] = imageId;
+		scores[size] = score;
+		size++;
+	}
+
+	/**
+	 * Sorts the images by descending score. The sort is stable, so images with equal scores keep their
+	 * relative order.
+	 */
+	public void sortByScore() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++) {
+			sorted = scores[i - 1] >= scores[i];
+		}
+		if (sorted) { // the usual case, submission files are ranked by score
+			return;
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(scores[i2], scores[i1]);
+			}
+		});
+		long[] sortedImageIds = new long[size];
+		double[] sortedScores = new double[size];
+		for (int i = 0; i < size; i++) {
+			sortedImageIds[i] = imageIds[order[i]];
+			sortedScores[i] = scores[order[i]];
+		}
+		imageIds = sortedImageIds;
+		scores = sortedScores;
+	}
+
+	public int getLocationId() {
+		return locationId;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getImageId(int rank) {
+		return imageIds[rank];
+	}
+
+	public double getScore(int rank) {
+		return scores[rank];
+	}
+
+	/**
+	 * Returns the images of the list as MediImageComparator2014 objects, in the same order.
+	 *
+	 * @return
+	 */
+	public ArrayList<MediImageComparator2014> toImageComparators() {
+		ArrayList<MediImageComparator2014> images = new ArrayList<MediImageComparator2014>(size);
+		for (int i = 0; i < size; i++) {
+			images.add(new MediImageComparator2014(String.valueOf(imageIds[i]), locationId, scores[i]));
+		}
+		return images;
+	}
+
+	/**
+	 * Parses a submission file in the MediaEval 2014 format and returns the images of each location sorted
+	 * by descending relevance score, keyed by location id. Each line is tokenized once and only the location
+	 * id, the image id and the score fields are parsed.
+	 *
+	 * @param submissionFileName
+	 * @return
+	 * @throws Exception
+	 */
+	public static HashMap<Integer, RankedImageList> parseSubmissionFile(String submissionFileName)
+			throws Exception {
+		HashMap<Integer, RankedImageList> lists = new HashMap<Integer, RankedImageList>();
+		BufferedReader in = new BufferedReader(new FileReader(new File(submissionFileName)));
+		RankedImageList list = null;
+		String line;
+		int[] fieldEnds = new int[5];
+		try {
+			while ((line = in.readLine()) != null) {
+				// find the ends of the first five space separated fields
+				int numFields = 0;
+				int end = line.indexOf(' ');
+				while (end >= 0 && numFields < fieldEnds.length) {
+					fieldEnds[numFields++] = end;
+					end = line.indexOf(' ', end + 1);
+				}
+				if (numFields < fieldEnds.length) {
+					if (numFields == fieldEnds.length - 1) { // the run name is missing
+						fieldEnds[numFields++] = line.length();
+					} else {
+						throw new Exception("Wrong submission file line: " + line);
+					}
+				}
+				int locationId = (int) parseLong(line, 0, fieldEnds[0]);
+				long imageId = parseLong(line, fieldEnds[1] + 1, fieldEnds[2]);
+				double score = Double.parseDouble(line.substring(fieldEnds[3] + 1, fieldEnds[4]));
+				if (list == null || list.locationId != locationId) { // first or new location
+					list = lists.get(locationId);
+					if (list == null) {
+						list = new RankedImageList(locationId, 64);
+						lists.put(locationId, list);
+					}
+				}
+				list.add(imageId, score);
+			}
+		} finally {
+			in.close();
+		}
+		for (RankedImageList locationList : lists.values()) {
+			locationList.sortByScore();
+		}
+		return lists;
+	}
+
+	/**
+	 * Parses the decimal integer at positions [from, to) of the given String.
+	 */
+	private static long parseLong(String s, int from, int to) {
+		boolean negative = from < to && s.charAt(from) == '-';
+		int i = negative ? from + 1 : from;
+		if (i == to) {
+			throw new NumberFormatException("For input string: \"" + s.substring(from, to) + "\"");
+		}
+		long value = 0;
+		for (; i < to; i++) {
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("For input string: \"" + s.substring(from, to) + "\"");
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,177 @@
+package eu.socialSensor.diverseImages2014.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes ASCII text to a channel through a large byte buffer. Numbers are formatted directly into the buffer
+ * without creating intermediate Strings: integers digit by digit and doubles by {@link DoubleFormatter}, in
+ * the layout of {@link Double#toString(double)}. The buffer is written to the channel only when it is full
+ * and when the writer is flushed or closed.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class TextChannelWriter {
+
+	/** the default size of the buffer in bytes */
+	public static final int defaultBufferSize = 1 << 20;
+
+	/** the longest number that can be written, e.g. -1.2345678901234567E-308 */
+	private static final int maxNumberLength = 32;
+
+	private WritableByteChannel channel;
+
+	private ByteBuffer buffer;
+
+	/** reused for formatting integers, in reverse digit order */
+	private byte[] digits = new byte[20];
+
+	/**
+	 * @param channel
+	 * @param bufferSize
+	 *            The size of the buffer in bytes, at least 32
+	 */
+	public TextChannelWriter(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(Math.max(bufferSize, maxNumberLength));
+	}
+
+	/**
+	 * Creates (or overwrites) the given file.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public TextChannelWriter(String fileName) throws IOException {
+		this(new FileOutputStream(fileName).getChannel(), defaultBufferSize);
+	}
+
+	/**
+	 * Writes an ASCII character.
+	 *
+	 * @param c
+	 * @throws IOException
+	 */
+	public void write(char c) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flushBuffer();
+		}
+		buffer.put((byte) c);
+	}
+
+	/**
+	 * Writes a String of ASCII characters.
+	 *
+	 * @param s
+	 * @throws IOException
+	 */
+	public void write(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			if (!buffer.hasRemaining()) {
+				flushBuffer();
+			}
+			buffer.put((byte) s.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes the given bytes.
+	 *
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void write(byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				flushBuffer();
+			}
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * Writes the decimal representation of the given integer.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeLong(long value) throws IOException {
+		if (buffer.remaining() < maxNumberLength) {
+			flushBuffer();
+		}
+		if (value == Long.MIN_VALUE) { // cannot be negated
+			write(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int numDigits = 0;
+		do {
+			digits[numDigits++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (numDigits > 0) {
+			buffer.put(digits[--numDigits]);
+		}
+	}
+
+	/**
+	 * Writes the given double with {@link DoubleFormatter#format(double, byte[], int)}.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeDouble(double value) throws IOException {
+		if (buffer.remaining() < maxNumberLength) {
+			flushBuffer();
+		}
+		int end = DoubleFormatter.format(value, buffer.array(), buffer.arrayOffset() + buffer.position());
+		buffer.position(end - buffer.arrayOffset());
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Returns the channel that the text is written to, for writing to it directly after a {@link #flush()}.
+	 *
+	 * @return
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Writes the buffered text to the channel.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	/**
+	 * Writes the buffered text and closes the channel.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package eu.socialSensor.diverseImages2014.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import eu.socialSensor.diverseImages2014.utils.DistanceKernels;
+import eu.socialSensor.diverseImages2014.utils.Distances;
+
+/**
+ * SIMD distance kernels that use the incubating JDK Vector API. Each loop processes as many elements per
+ * iteration as fit in the preferred vector register of the platform (e.g. 4 doubles with AVX2, 8 with
+ * AVX-512), accumulating them in separate lanes that are added at the end, and the remaining elements with
+ * scalar code. This class is kept in its own module, vector, because it needs JDK 16 or later and the
+ * jdk.incubator.vector module, e.g.:
+ *
+ * <pre>
+ * mvn package
+ * java --add-modules jdk.incubator.vector -DdiverseImages.vectorKernels=true
+ *     -cp "vector/target/classes:core/target/classes:lib/*:..." ...
+ * </pre>
+ *
+ * It is loaded by {@link Distances} when the {@link Distances#vectorKernelsProperty} system property is
+ * true.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class VectorDistanceKernels implements DistanceKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public double innerProduct(double[] vec1, double[] vec2) {
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int bound = SPECIES.loopBound(vec1.length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(SPECIES, vec1, i);
+			DoubleVector v2 = DoubleVector.fromArray(SPECIES, vec2, i);
+			sum = sum.add(v1.mul(v2));
+		}
+		double innerp = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < vec1.length; i++) {
+			innerp += vec1[i] * vec2[i];
+		}
+		return innerp;
+	}
+
+	public double euclideanDistanceSquared(double[] vec1, double[] vec2) {
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int bound = SPECIES.loopBound(vec1.length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector diff = DoubleVector.fromArray(SPECIES, vec1, i).sub(
+					DoubleVector.fromArray(SPECIES, vec2, i));
+			sum = sum.add(diff.mul(diff));
+		}
+		double distance = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < vec1.length; i++) {
+			distance += (vec1[i] - vec2[i]) * (vec1[i] - vec2[i]);
+		}
+		return distance;
+	}
+
+	public double cosineDistance(double[] vec1, double[] vec2) {
+		DoubleVector innerpSum = DoubleVector.zero(SPECIES);
+		DoubleVector norm1Sum = DoubleVector.zero(SPECIES);
+		DoubleVector norm2Sum = DoubleVector.zero(SPECIES);
+		int bound = SPECIES.loopBound(vec1.length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(SPECIES, vec1, i);
+			DoubleVector v2 = DoubleVector.fromArray(SPECIES, vec2, i);
+			innerpSum = innerpSum.add(v1.mul(v2));
+			norm1Sum = norm1Sum.add(v1.mul(v1));
+			norm2Sum = norm2Sum.add(v2.mul(v2));
+		}
+		double innerp = innerpSum.reduceLanes(VectorOperators.ADD);
+		double norm1 = norm1Sum.reduceLanes(VectorOperators.ADD);
+		double norm2 = norm2Sum.reduceLanes(VectorOperators.ADD);
+		for (; i < vec1.length; i++) {
+			innerp += vec1[i] * vec2[i];
+			norm1 += vec1[i] * vec1[i];
+			norm2 += vec2[i] * vec2[i];
+		}
+		return 1 - (innerp / (Math.sqrt(norm1) * Math.sqrt(norm2)));
+	}
+}
@@ -0,0 +1,91 @@
+package eu.socialSensor.diverseImages2014.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import jdk.incubator.vector.DoubleVector;
+
+import org.junit.Test;
+
+import eu.socialSensor.diverseImages2014.utils.DistanceKernels;
+import eu.socialSensor.diverseImages2014.utils.Distances;
+
+/**
+ * Compares the SIMD kernels with the scalar loops of {@link Distances} (which are used because the
+ * {@link Distances#vectorKernelsProperty} system property is not set) on vector lengths that are and are not
+ * multiples of the number of lanes.
+ *
+ * @author Eleftherios Spyromitros-Xioufis
+ */
+public class VectorDistanceKernelsTest {
+
+	/** relative tolerance, the SIMD kernels sum the elements in a different order */
+	public static final double tolerance = 1e-12;
+
+	private final DistanceKernels kernels = new VectorDistanceKernels();
+
+	private static int[] getLengths() {
+		int lanes = DoubleVector.SPECIES_PREFERRED.length();
+		return new int[] { 0, 1, lanes - 1, lanes, lanes + 1, 2 * lanes + 3, 7, 13, 64, 127, 4096, 4099 };
+	}
+
+	private static double[] randomVector(Random rand, int length) {
+		double[] vec = new double[length];
+		for (int i = 0; i < length; i++) {
+			vec[i] = rand.nextDouble() * 2 - 1;
+		}
+		return vec;
+	}
+
+	private static void assertClose(String message, double expected, double actual) {
+		assertEquals(message, expected, actual, tolerance * Math.max(1, Math.abs(expected)));
+	}
+
+	@Test
+	public void testScalarDistancesAreUsed() {
+		assertTrue(!Distances.usesVectorKernels());
+	}
+
+	@Test
+	public void testInnerProduct() {
+		Random rand = new Random(1);
+		for (int length : getLengths()) {
+			double[] vec1 = randomVector(rand, length);
+			double[] vec2 = randomVector(rand, length);
+			assertClose("length " + length, Distances.innerProduct(vec1, vec2), kernels.innerProduct(vec1, vec2));
+		}
+	}
+
+	@Test
+	public void testEuclideanDistance() throws Exception {
+		Random rand = new Random(2);
+		for (int length : getLengths()) {
+			double[] vec1 = randomVector(rand, length);
+			double[] vec2 = randomVector(rand, length);
+			assertClose("length " + length, Distances.computeDistance(vec1, vec2, "euclidean"),
+					Math.sqrt(kernels.euclideanDistanceSquared(vec1, vec2)));
+		}
+	}
+
+	@Test
+	public void testCosineDistance() {
+		Random rand = new Random(3);
+		for (int length : getLengths()) {
+			if (length == 0) { // undefined, both return NaN
+				continue;
+			}
+			double[] vec1 = randomVector(rand, length);
+			double[] vec2 = randomVector(rand, length);
+			assertClose("length " + length, Distances.cosineDistance(vec1, vec2),
+					kernels.cosineDistance(vec1, vec2));
+		}
+	}
+
+	@Test
+	public void testClassName() throws Exception {
+		assertEquals(VectorDistanceKernels.class,
+				Class.forName(Distances.vectorKernelsClass).asSubclass(DistanceKernels.class));
+	}
+}